@@ -0,0 +1,126 @@
+package compression;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs. Every corpus is generated from a fixed seed, so runs
+ * on different machines compress exactly the same bytes.
+ */
+final class Corpora {
+    private static final long SEED = 0x5EEDL;
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "is", "that", "for", "it", "as", "was", "with",
+            "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which",
+            "compression", "block", "table", "stream", "entropy", "dictionary", "image", "code"
+    };
+    private static final String[] METHODS = {"GET", "GET", "GET", "POST", "PUT", "DELETE"};
+    private static final String[] PATHS = {"/api/users", "/api/orders", "/static/app.js", "/health", "/login"};
+
+    private Corpora() {
+    }
+
+    /** ASCII text corpora by name: {@code text}, {@code csv} or {@code random}. */
+    static byte[] text(String name, int size) {
+        return switch (name) {
+            case "text" -> prose(size);
+            case "csv" -> csv(size);
+            case "random" -> random(size);
+            default -> throw new IllegalArgumentException("Unknown corpus: " + name);
+        };
+    }
+
+    /** Word-frequency-skewed English-like prose. */
+    static byte[] prose(int size) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(size + 32);
+        int sentence = 0;
+        while (sb.length() < size) {
+            // Squaring skews towards the first, most common words
+            double r = random.nextDouble();
+            String word = WORDS[(int) (r * r * WORDS.length)];
+            sb.append(sentence == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            if (++sentence > 6 + random.nextInt(10)) {
+                sb.append(random.nextInt(8) == 0 ? ".\n" : ". ");
+                sentence = 0;
+            } else {
+                sb.append(' ');
+            }
+        }
+        return truncate(sb, size);
+    }
+
+    /** Access-log style CSV with timestamps, ids and numeric columns. */
+    static byte[] csv(int size) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(size + 128);
+        sb.append("id,timestamp,user,method,path,status,latency_ms\n");
+        long time = 1_700_000_000L;
+        for (int id = 1; sb.length() < size; id++) {
+            time += random.nextInt(5);
+            sb.append(id).append(',')
+                    .append(time).append(',')
+                    .append("user").append(random.nextInt(1000)).append(',')
+                    .append(METHODS[random.nextInt(METHODS.length)]).append(',')
+                    .append(PATHS[random.nextInt(PATHS.length)]).append(',')
+                    .append(random.nextInt(20) == 0 ? 500 : 200).append(',')
+                    .append(String.format("%.2f", random.nextGaussian() * 15 + 40)).append('\n');
+        }
+        return truncate(sb, size);
+    }
+
+    /** Uniform random 7-bit bytes: close to incompressible for an order-0 model. */
+    static byte[] random(int size) {
+        Random random = new Random(SEED);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) random.nextInt(128);
+        }
+        return data;
+    }
+
+    /** Smooth gradients, hard-edged shapes and a little noise, so every DCT band gets work. */
+    static BufferedImage image(int width, int height) {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / Math.max(1, width - 1);
+                int g = 255 * y / Math.max(1, height - 1);
+                int b = (int) (127 + 127 * Math.sin((x + y) / 17.0));
+                if (((x / 64) + (y / 64)) % 5 == 0) {
+                    r = 255 - r;
+                    b = 40;
+                }
+                int noise = random.nextInt(17) - 8;
+                image.setRGB(x, y, clamp(r + noise) << 16 | clamp(g + noise) << 8 | clamp(b + noise));
+            }
+        }
+        return image;
+    }
+
+    static byte[] png(BufferedImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    private static byte[] truncate(StringBuilder sb, int size) {
+        sb.setLength(size);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,107 @@
+package compression;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end image compression from PNG bytes and decompression back to PNG.
+ * Throughput counts raw RGB bytes (3 per pixel); the ratio is against the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JPEGBenchmark {
+
+    @Param({"1024x768", "3000x2000"})
+    public String dimensions;
+
+    @Param({"30", "75"})
+    public int quality;
+
+    @Param({"FLOAT", "INTEGER"})
+    public JPEGCompressor.DctMode dct;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private JPEGCompressor compressor;
+    private byte[] png;
+    private byte[] compressed;
+    private long rawBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String[] parts = dimensions.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        compressor = new JPEGCompressor(quality, dct, parallel ? ForkJoinPool.commonPool() : null);
+        png = Corpora.png(Corpora.image(width, height));
+        rawBytes = 3L * width * height;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(new ByteArrayInputStream(png), out);
+        compressed = out.toByteArray();
+        System.out.printf("%n[ratio] jpeg %s q%d: %d raw -> %d bytes, ratio %.4f%n",
+                dimensions, quality, rawBytes, compressed.length, (double) compressed.length / rawBytes);
+    }
+
+    @Benchmark
+    public int compress(Throughput throughput) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+        compressor.compress(new ByteArrayInputStream(png), out);
+        throughput.add(rawBytes);
+        return out.size();
+    }
+
+    /** Same output as compress, reading and coding a few strips at a time. */
+    @Benchmark
+    public int compressStreaming(Throughput throughput) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+        compressor.compressStreaming(new ByteArrayInputStream(png), out);
+        throughput.add(rawBytes);
+        return out.size();
+    }
+
+    /** Transforms once, then searches for the best quality that fits half the fixed-quality size. */
+    @Benchmark
+    public int compressToSize(Throughput throughput) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length);
+        JPEGCompressor.Coefficients coefficients = compressor.transform(new ByteArrayInputStream(png));
+        compressor.encodeToSize(coefficients, compressed.length / 2, out);
+        throughput.add(rawBytes);
+        return out.size();
+    }
+
+    @Benchmark
+    public int decompress(Throughput throughput) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.decompress(new ByteArrayInputStream(compressed), out);
+        throughput.add(rawBytes);
+        return out.size();
+    }
+
+    /** Decoded pixels in memory, with no image file written. */
+    @Benchmark
+    public int decompressPixels(Throughput throughput) throws IOException {
+        PixelBuffer pixels = compressor.decompressPixels(new ByteArrayInputStream(compressed));
+        throughput.add(rawBytes);
+        return pixels.width();
+    }
+
+    /** 1/8 scale thumbnail from the DC coefficients; throughput still counts full-size bytes. */
+    @Benchmark
+    public int decompressScaled(Throughput throughput) throws IOException {
+        BufferedImage image = compressor.decompressScaled(new ByteArrayInputStream(compressed), 8);
+        throughput.add(rawBytes);
+        return image.getWidth();
+    }
+}
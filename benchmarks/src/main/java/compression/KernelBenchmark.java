@@ -0,0 +1,94 @@
+package compression;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against Vector API kernels. The fork adds {@code jdk.incubator.vector} so both
+ * are available; KernelsTest checks that the two produce identical outputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    private static final int ROW = 3000;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private Kernels impl;
+
+    private final float[] samples = new float[DCT.COEFFICIENTS];
+    private final float[] block = new float[DCT.COEFFICIENTS];
+    private final float[] scratch = new float[DCT.COEFFICIENTS];
+    private final int[] quantized = new int[DCT.COEFFICIENTS];
+    private float[] divisors;
+    private float[] multipliers;
+
+    private final int[] rgb = new int[ROW];
+    private final float[] luma = new float[ROW];
+    private final float[] cb = new float[ROW];
+    private final float[] cr = new float[ROW];
+    private final int[] pixels = new int[ROW];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        impl = kernels.equals("vector") ? Kernels.vector() : Kernels.scalar();
+        if (impl == null) {
+            throw new IllegalStateException("Vector kernels unavailable: the CPU needs 256-bit vectors");
+        }
+
+        Random random = new Random(0x5EEDL);
+        int[] qTable = new int[DCT.COEFFICIENTS];
+        for (int i = 0; i < DCT.COEFFICIENTS; i++) {
+            qTable[i] = 1 + i / 4;
+            samples[i] = random.nextInt(256) - 128 + random.nextFloat();
+        }
+        divisors = DCT.floatDivisors(qTable);
+        multipliers = DCT.floatMultipliers(qTable);
+        for (int i = 0; i < ROW; i++) {
+            rgb[i] = random.nextInt();
+            luma[i] = random.nextFloat() * 300 - 150;
+            cb[i] = random.nextFloat() * 300 - 150;
+            cr[i] = random.nextFloat() * 300 - 150;
+        }
+    }
+
+    @Benchmark
+    public float[] forwardDct() {
+        System.arraycopy(samples, 0, block, 0, block.length);
+        impl.forwardDct(block, scratch);
+        return block;
+    }
+
+    @Benchmark
+    public int[] quantize() {
+        impl.quantize(samples, divisors, quantized);
+        return quantized;
+    }
+
+    @Benchmark
+    public float[] inverseDct() {
+        impl.quantize(samples, divisors, quantized);
+        impl.inverseDct(quantized, multipliers, block, scratch);
+        return block;
+    }
+
+    @Benchmark
+    public float[] lumaRow() {
+        impl.luma(rgb, 0, luma, 0, ROW);
+        return luma;
+    }
+
+    @Benchmark
+    public int[] toRGBRow() {
+        impl.toRGB(luma, 0, cb, cr, 0, pixels, 0, ROW);
+        return pixels;
+    }
+}
@@ -0,0 +1,138 @@
+package compression;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Per-stage micro-benchmarks: block transforms, zigzag, entropy coding and the LZW dictionary. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark {
+
+    private static final int BLOCKS = 4096;
+
+    private final int[] qTable = new int[DCT.COEFFICIENTS];
+    private float[] multipliers;
+    private final float[] samples = new float[DCT.COEFFICIENTS];
+    private final float[] floatBlock = new float[DCT.COEFFICIENTS];
+    private final int[] intSamples = new int[DCT.COEFFICIENTS];
+    private final int[] intBlock = new int[DCT.COEFFICIENTS];
+    private final int[] coefficients = new int[DCT.COEFFICIENTS];
+    private final int[] zigzag = new int[DCT.COEFFICIENTS];
+    private final int[] intOut = new int[DCT.COEFFICIENTS];
+    private final float[] floatOut = new float[DCT.COEFFICIENTS];
+
+    private SymbolBuffer blocks;
+    private byte[] encodedBlocks;
+
+    private int[] lzwPrefixes;
+    private int[] lzwSymbols;
+    private LZWDictionary dictionary;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < DCT.COEFFICIENTS; i++) {
+            qTable[i] = 1 + i / 4;
+            samples[i] = random.nextInt(256) - 128;
+            intSamples[i] = (int) samples[i];
+            coefficients[i] = i < 10 ? random.nextInt(41) - 20 : 0;
+        }
+        multipliers = DCT.floatMultipliers(qTable);
+
+        // Quantized blocks shaped like real ones: a wandering DC, AC magnitudes that
+        // fall off along the zigzag order and mostly zero high frequencies
+        blocks = new SymbolBuffer(BLOCKS * DCT.COEFFICIENTS);
+        int dc = 0;
+        for (int b = 0; b < BLOCKS; b++) {
+            dc += random.nextInt(21) - 10;
+            blocks.add(dc);
+            for (int k = 1; k < DCT.COEFFICIENTS; k++) {
+                double scale = 24.0 / (k + 2);
+                int v = (int) Math.round(random.nextGaussian() * scale);
+                blocks.add(random.nextInt(k + 1) < 3 ? v : 0);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HuffmanCodec().compressRLE(blocks, out);
+        encodedBlocks = out.toByteArray();
+
+        byte[] text = Corpora.prose(1 << 16);
+        lzwPrefixes = new int[text.length];
+        lzwSymbols = new int[text.length];
+        for (int i = 0; i < text.length; i++) {
+            lzwPrefixes[i] = i == 0 ? 0 : 258 + (i * 31) % 60000;
+            lzwSymbols[i] = text[i];
+        }
+        dictionary = new LZWDictionary(1 << 16);
+    }
+
+    @Benchmark
+    public float[] dctForwardFloat() {
+        System.arraycopy(samples, 0, floatBlock, 0, DCT.COEFFICIENTS);
+        DCT.forwardFloat(floatBlock);
+        return floatBlock;
+    }
+
+    @Benchmark
+    public float[] dctInverseFloat() {
+        DCT.inverseFloat(coefficients, multipliers, floatOut);
+        return floatOut;
+    }
+
+    @Benchmark
+    public int[] dctForwardInt() {
+        System.arraycopy(intSamples, 0, intBlock, 0, DCT.COEFFICIENTS);
+        DCT.forwardInt(intBlock);
+        return intBlock;
+    }
+
+    @Benchmark
+    public int[] dctInverseInt() {
+        DCT.inverseInt(coefficients, qTable, intOut);
+        return intOut;
+    }
+
+    @Benchmark
+    public int[] zigzagScan() {
+        JPEGCompressor.zigzagScan(coefficients, zigzag);
+        return zigzag;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public int entropyEncode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encodedBlocks.length);
+        new HuffmanCodec().compressRLE(blocks, out);
+        return out.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public SymbolBuffer entropyDecode() throws IOException {
+        return new HuffmanCodec().decompressRLE(new ByteArrayInputStream(encodedBlocks), BLOCKS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1 << 16)
+    public void lzwDictionary(Blackhole blackhole) {
+        dictionary.clear();
+        int next = 258;
+        for (int i = 0; i < lzwPrefixes.length; i++) {
+            int code = dictionary.get(lzwPrefixes[i], lzwSymbols[i]);
+            if (code < 0) {
+                dictionary.put(lzwPrefixes[i], lzwSymbols[i], next++);
+            }
+            blackhole.consume(code);
+        }
+    }
+}
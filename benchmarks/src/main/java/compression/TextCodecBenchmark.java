@@ -0,0 +1,67 @@
+package compression;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** End-to-end text compression and decompression through the {@link Compressor} API. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextCodecBenchmark {
+
+    @Param({"huffman", "lzw", "huffman-framed", "lzw-framed"})
+    public String codec;
+
+    @Param({"text", "csv", "random"})
+    public String corpus;
+
+    @Param({"4194304"})
+    public int size;
+
+    private Compressor compressor;
+    private byte[] input;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        compressor = switch (codec) {
+            case "huffman" -> new HuffmanEncoder();
+            case "lzw" -> new LZWEncoder();
+            case "huffman-framed" -> new FramedCompressor(new HuffmanEncoder());
+            case "lzw-framed" -> new FramedCompressor(new LZWEncoder());
+            default -> throw new IllegalArgumentException("Unknown codec: " + codec);
+        };
+        input = Corpora.text(corpus, size);
+        compressed = compress();
+        System.out.printf("%n[ratio] %s/%s: %d -> %d bytes, ratio %.3f%n",
+                codec, corpus, input.length, compressed.length, (double) compressed.length / input.length);
+    }
+
+    private byte[] compress() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+        compressor.compress(new ByteArrayInputStream(input), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] compress(Throughput throughput) throws IOException {
+        byte[] result = compress();
+        throughput.add(input.length);
+        return result;
+    }
+
+    @Benchmark
+    public int decompress(Throughput throughput) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+        compressor.decompress(new ByteArrayInputStream(compressed), out);
+        throughput.add(input.length);
+        return out.size();
+    }
+}
@@ -0,0 +1,398 @@
+package cli;
+
+import compression.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch mode: compresses or decompresses every file under a directory or
+ * matching a glob. Files are handled on virtual threads where the JVM has them; the
+ * codec work itself runs on a pool bounded to the CPU count (or {@code -j}).
+ */
+public final class CompressionCli {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: compress|decompress <dir|glob|file>... -a <algorithm> [options]",
+            "",
+            "  -a, --algorithm  huffman, lzw, huffman-framed, lzw-framed or jpeg",
+            "  -q, --quality    JPEG quality 1-100 (default 30)",
+            "  -o, --output     target directory; by default outputs go next to the inputs",
+            "  -j, --threads    codec threads (default: number of CPUs)",
+            "  -m, --metrics    print per-stage timings and codec statistics at the end",
+            "  -c, --cache      directory of earlier outputs to reuse for unchanged inputs",
+            "      --cache-size cache budget in MB (default 1024)",
+            "  -f, --force      replace existing output files; by default they are skipped",
+            "",
+            "Globs are relative to the working directory unless absolute, e.g. 'logs/**/*.csv'.");
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public CompressionCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CompressionCli(System.out, System.err).run(args));
+    }
+
+    /**
+     * Runs one batch and returns the process exit code: 0 on success, 1 if any file failed
+     * or was skipped because its output exists, 2 on bad usage.
+     */
+    public int run(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        List<Input> inputs = new ArrayList<>();
+        try {
+            for (String pattern : options.inputs) {
+                collect(pattern, inputs);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            err.println("Cannot list input files: " + e.getMessage());
+            return 2;
+        }
+        // Skip our own outputs when compressing in place, and anything else when decompressing
+        inputs.removeIf(input -> input.path.getFileName().toString().endsWith(options.extension()) != options.decompress);
+        if (options.cacheDir != null) {
+            Path cacheDir = options.cacheDir.toAbsolutePath().normalize();
+            inputs.removeIf(input -> input.path.toAbsolutePath().normalize().startsWith(cacheDir));
+        }
+        if (inputs.isEmpty()) {
+            err.println("No input files found");
+            return 1;
+        }
+
+        if (options.metrics) {
+            Metrics.reset();
+            Metrics.setEnabled(true);
+        }
+        Compressor compressor = options.compressor();
+        CachingCompressor cache = null;
+        if (options.cacheDir != null && !options.decompress) {
+            try {
+                compressor = cache = new CachingCompressor(compressor, options.cacheDir, options.cacheMegabytes << 20);
+            } catch (IOException e) {
+                err.println("Cannot open cache: " + e.getMessage());
+                return 2;
+            }
+        }
+        Compressor codec = compressor;
+        ExecutorService cpuPool = Executors.newFixedThreadPool(options.threads);
+        ExecutorService fileThreads = virtualThreadExecutor();
+        long start = System.nanoTime();
+        List<CompletableFuture<Result>> futures = new ArrayList<>(inputs.size());
+        try {
+            for (Input input : inputs) {
+                futures.add(fileThreads != null
+                        ? CompletableFuture.supplyAsync(() -> process(input, codec, options, cpuPool), fileThreads)
+                        : CompletableFuture.supplyAsync(() -> process(input, codec, options, null), cpuPool));
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<Result> future : futures) {
+                results.add(future.join());
+            }
+            printSummary(results, System.nanoTime() - start, options);
+            if (cache != null) {
+                out.printf(Locale.ROOT, "  cache:      %d hits, %d misses, %d evicted%n", cache.hits(), cache.misses(), cache.evictions());
+            }
+            if (options.metrics) {
+                out.println("Metrics:");
+                out.print(Metrics.report());
+            }
+            return results.stream().allMatch(r -> r.error == null && !r.skipped) ? 0 : 1;
+        } finally {
+            cpuPool.shutdownNow();
+            if (fileThreads != null) fileThreads.shutdownNow();
+        }
+    }
+
+    /** {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21+, {@code null} before. */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private Result process(Input input, Compressor compressor, Options options, ExecutorService cpuPool) {
+        Path target = options.target(input);
+        if (!options.force && Files.exists(target)) {
+            return skipped(input, target);
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            // Keeps the target's extension, which picks the image format when decompressing
+            temp = Files.createTempFile(target.toAbsolutePath().getParent(), ".cli-", "-" + target.getFileName());
+            File from = input.path.toFile();
+            File to = temp.toFile();
+            Callable<Void> codec = () -> {
+                if (options.decompress) {
+                    compressor.decompress(from, to);
+                } else {
+                    compressor.compress(from, to);
+                }
+                return null;
+            };
+            if (cpuPool != null) {
+                join(cpuPool.submit(codec));
+            } else {
+                codec.call();
+            }
+            // Another file may have produced the same target while this one was coded
+            if (!options.force && Files.exists(target)) {
+                deleteQuietly(temp);
+                return skipped(input, target);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(input.path, Files.size(input.path), Files.size(target), null, false);
+        } catch (Exception e) {
+            deleteQuietly(temp);
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return new Result(input.path, 0, 0, message, false);
+        }
+    }
+
+    private static Result skipped(Input input, Path target) {
+        return new Result(input.path, 0, 0, target + " exists (use --force to replace it)", true);
+    }
+
+    private static void join(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+
+    private void printSummary(List<Result> results, long nanos, Options options) {
+        long inBytes = 0;
+        long outBytes = 0;
+        int failed = 0;
+        int skipped = 0;
+        for (Result result : results) {
+            if (result.skipped) {
+                skipped++;
+                err.println("SKIPPED " + result.path + ": " + result.error);
+            } else if (result.error != null) {
+                failed++;
+                err.println("FAILED " + result.path + ": " + result.error);
+            } else {
+                inBytes += result.inBytes;
+                outBytes += result.outBytes;
+            }
+        }
+        double seconds = nanos / 1e9;
+        long processed = options.decompress ? outBytes : inBytes;
+        out.printf(Locale.ROOT, "%s %d file(s) with %s in %.2f s%n",
+                options.decompress ? "Decompressed" : "Compressed", results.size() - failed - skipped, options.algorithm, seconds);
+        out.printf(Locale.ROOT, "  input:      %,d bytes%n", inBytes);
+        out.printf(Locale.ROOT, "  output:     %,d bytes%n", outBytes);
+        if (inBytes > 0 && outBytes > 0) {
+            double ratio = options.decompress ? (double) inBytes / outBytes : (double) outBytes / inBytes;
+            out.printf(Locale.ROOT, "  ratio:      %.3f%n", ratio);
+        }
+        out.printf(Locale.ROOT, "  throughput: %.1f MB/s (uncompressed)%n", processed / 1e6 / Math.max(seconds, 1e-9));
+        out.printf(Locale.ROOT, "  failures:   %d%n", failed);
+        if (skipped > 0) {
+            out.printf(Locale.ROOT, "  skipped:    %d (outputs exist)%n", skipped);
+        }
+    }
+
+    /** Expands one argument: a file, a directory (recursively) or a glob. */
+    private static void collect(String pattern, List<Input> inputs) throws IOException {
+        if (!isGlob(pattern)) {
+            Path path = Path.of(pattern);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(Files::isRegularFile).forEach(p -> inputs.add(new Input(p, path.relativize(p))));
+                }
+            } else if (Files.isRegularFile(path)) {
+                inputs.add(new Input(path, path.getFileName()));
+            } else {
+                throw new NoSuchFileException(pattern);
+            }
+            return;
+        }
+
+        // Walk from the directories before the first glob character, root included, so the
+        // walked paths are absolute or relative just like the pattern they are matched with
+        String literal = pattern.split("[*?\\[{]", 2)[0];
+        Path root = Path.of(literal.substring(0, Math.max(literal.lastIndexOf('/'), literal.lastIndexOf('\\')) + 1));
+        if (!Files.isDirectory(root.toString().isEmpty() ? Path.of(".") : root)) {
+            return;
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        Path base = root;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .forEach(p -> inputs.add(new Input(p, base.relativize(p))));
+        }
+    }
+
+    private static boolean isGlob(String s) {
+        return s.matches(".*[*?\\[{].*");
+    }
+
+    private static final class Input {
+        final Path path;
+        /** Path below the directory or glob root, kept when writing into a target directory. */
+        final Path relative;
+
+        Input(Path path, Path relative) {
+            this.path = path;
+            this.relative = relative;
+        }
+    }
+
+    private static final class Result {
+        final Path path;
+        final long inBytes;
+        final long outBytes;
+        final String error;
+        /** Not coded because the output exists; {@link #error} says which. */
+        final boolean skipped;
+
+        Result(Path path, long inBytes, long outBytes, String error, boolean skipped) {
+            this.path = path;
+            this.inBytes = inBytes;
+            this.outBytes = outBytes;
+            this.error = error;
+            this.skipped = skipped;
+        }
+    }
+
+    private static final class Options {
+        boolean decompress;
+        String algorithm;
+        int quality = 30;
+        Path outputDir;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean metrics;
+        boolean force;
+        Path cacheDir;
+        long cacheMegabytes = 1024;
+        final List<String> inputs = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            if (args.length == 0) {
+                throw new IllegalArgumentException("Missing command");
+            }
+            Options options = new Options();
+            switch (args[0]) {
+                case "compress" -> options.decompress = false;
+                case "decompress" -> options.decompress = true;
+                default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+            }
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-a", "--algorithm" -> options.algorithm = value(args, ++i, arg).toLowerCase(Locale.ROOT);
+                    case "-q", "--quality" -> options.quality = number(args, ++i, arg);
+                    case "-o", "--output" -> options.outputDir = Path.of(value(args, ++i, arg));
+                    case "-j", "--threads" -> options.threads = Math.max(1, number(args, ++i, arg));
+                    case "-m", "--metrics" -> options.metrics = true;
+                    case "-c", "--cache" -> options.cacheDir = Path.of(value(args, ++i, arg));
+                    case "--cache-size" -> options.cacheMegabytes = Math.max(1, number(args, ++i, arg));
+                    case "-f", "--force" -> options.force = true;
+                    default -> {
+                        if (arg.startsWith("-")) throw new IllegalArgumentException("Unknown option: " + arg);
+                        options.inputs.add(arg);
+                    }
+                }
+            }
+            if (options.algorithm == null) {
+                throw new IllegalArgumentException("Missing --algorithm");
+            }
+            options.compressor(); // validates the name
+            if (options.inputs.isEmpty()) {
+                throw new IllegalArgumentException("Missing input files");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            return args[i];
+        }
+
+        private static int number(String[] args, int i, String option) {
+            try {
+                return Integer.parseInt(value(args, i, option));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for " + option + ": " + args[i]);
+            }
+        }
+
+        /*
+         * Files are already coded in parallel, so the codecs themselves run single-threaded
+         * rather than queueing work on the pool they were called from.
+         */
+        Compressor compressor() {
+            return switch (algorithm) {
+                case "huffman" -> new HuffmanEncoder();
+                case "lzw" -> new LZWEncoder();
+                case "huffman-framed" -> new FramedCompressor(new HuffmanEncoder(), FramedCompressor.DEFAULT_BLOCK_SIZE, null);
+                case "lzw-framed" -> new FramedCompressor(new LZWEncoder(), FramedCompressor.DEFAULT_BLOCK_SIZE, null);
+                case "jpeg" -> new JPEGCompressor(quality, JPEGCompressor.DctMode.FLOAT, null);
+                default -> throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+            };
+        }
+
+        String extension() {
+            return algorithm.equals("jpeg") ? ".jpegcomp" : "." + algorithm;
+        }
+
+        /**
+         * Compressed files get the algorithm appended; decompression strips it again. Decoded
+         * images are written as {@code <stem>.decoded.png}, so they never land on a PNG source.
+         */
+        Path target(Input input) {
+            String name = input.path.getFileName().toString();
+            String targetName;
+            if (!decompress) {
+                targetName = name + extension();
+            } else {
+                String stem = name.endsWith(extension()) ? name.substring(0, name.length() - extension().length()) : name + ".out";
+                targetName = algorithm.equals("jpeg") ? stem.replaceAll("\\.[^.]+$", "") + ".decoded.png" : stem;
+            }
+            if (outputDir == null) {
+                return input.path.resolveSibling(targetName);
+            }
+            Path relative = input.relative.getParent();
+            return (relative == null ? outputDir : outputDir.resolve(relative)).resolve(targetName);
+        }
+    }
+}
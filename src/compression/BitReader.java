@@ -0,0 +1,100 @@
+package compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * MSB-first bit reader over a fixed number of bytes of a stream, or over the rest of it.
+ * A bounded reader never reads past its length, so the stream can be used again
+ * afterwards. Bits peeked beyond the end read as zeros; consuming them is an error.
+ */
+final class BitReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+    private long remaining;
+    private final boolean bounded;
+
+    private long acc;
+    private int count;
+    private int padding;
+
+    BitReader(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+        this.bounded = true;
+    }
+
+    /** Reads until the end of the stream. */
+    BitReader(InputStream in) {
+        this.in = in;
+        this.remaining = Long.MAX_VALUE;
+        this.bounded = false;
+    }
+
+    /** Returns the next {@code n} bits without consuming them, {@code n <= 32}. */
+    int peek(int n) throws IOException {
+        if (count < n) {
+            refill();
+        }
+        return (int) ((acc >>> (count - n)) & ((1L << n) - 1));
+    }
+
+    void skip(int n) throws IOException {
+        count -= n;
+        if (count < padding) {
+            throw new EOFException("Compressed data is truncated");
+        }
+    }
+
+    int read(int n) throws IOException {
+        int value = peek(n);
+        skip(n);
+        return value;
+    }
+
+    /** Discards whatever is left of the underlying byte range. */
+    void skipRemaining() throws IOException {
+        pos = limit;
+        count = 0;
+        padding = 0;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("Compressed data is truncated");
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private void refill() throws IOException {
+        while (count <= 56) {
+            if (pos == limit && !fill()) {
+                acc <<= 8;
+                padding += 8;
+            } else {
+                acc = (acc << 8) | (buffer[pos++] & 0xFF);
+            }
+            count += 8;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (n <= 0) {
+            if (bounded) throw new EOFException("Compressed data is truncated");
+            remaining = 0;
+            return false;
+        }
+        remaining -= n;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * MSB-first bit writer. Bits are collected in a 64-bit accumulator and spilled
+ * 32 bits at a time into a byte buffer, so the underlying stream only sees block writes.
+ */
+final class BitWriter {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+
+    private long acc;
+    private int count;
+
+    BitWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /** Writes the low {@code n} bits of {@code value}, {@code n <= 32}. */
+    void write(int value, int n) throws IOException {
+        acc = (acc << n) | (value & ((1L << n) - 1));
+        count += n;
+        if (count >= 32) {
+            count -= 32;
+            if (pos > buffer.length - 4) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            int word = (int) (acc >>> count);
+            buffer[pos++] = (byte) (word >>> 24);
+            buffer[pos++] = (byte) (word >>> 16);
+            buffer[pos++] = (byte) (word >>> 8);
+            buffer[pos++] = (byte) word;
+        }
+    }
+
+    /** Pads the last partial byte with zeros and pushes everything to the stream. */
+    void flush() throws IOException {
+        while (count > 0) {
+            if (pos == buffer.length) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            if (count >= 8) {
+                count -= 8;
+                buffer[pos++] = (byte) (acc >>> count);
+            } else {
+                buffer[pos++] = (byte) (acc << (8 - count));
+                count = 0;
+            }
+        }
+        out.write(buffer, 0, pos);
+        pos = 0;
+    }
+}
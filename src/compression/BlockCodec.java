@@ -0,0 +1,19 @@
+package compression;
+
+import java.io.IOException;
+
+/**
+ * A lossless codec that can code one self-contained block of bytes at a time, with no
+ * state shared between blocks. {@link FramedCompressor} uses it to code blocks in parallel.
+ */
+public interface BlockCodec {
+
+    /** Identifies the block format in framed files so a mismatched codec is rejected. */
+    int codecId();
+
+    /** {@code data} is a pooled buffer that is reused once this returns, so it must not be kept. */
+    byte[] encodeBlock(byte[] data, int length) throws IOException;
+
+    /** Decodes a block produced by {@link #encodeBlock} into the first {@code length} bytes of {@code data}. */
+    void decodeBlock(byte[] encoded, byte[] data, int length) throws IOException;
+}
@@ -0,0 +1,276 @@
+package compression;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Serves repeated compressions from a directory of earlier outputs. An entry is keyed on
+ * the XXH64 hash and length of the input plus the delegate's {@link Compressor#signature},
+ * so a hit costs one hashing pass over the input and a file copy.
+ * <p>
+ * The directory is an LRU store bounded by total bytes: a hit refreshes the entry's
+ * modification time, and an insert that goes over the budget deletes the least recently
+ * used entries. Entries are written to a temporary file and moved into place atomically,
+ * so concurrent writers, in this process or in others sharing the directory, never expose
+ * a partial entry. Decompression is passed straight to the delegate.
+ */
+public class CachingCompressor implements Compressor {
+
+    private static final String SUFFIX = ".cache";
+    private static final String TEMP_PREFIX = ".tmp-";
+    // Temporary files older than this were left behind by a crashed writer
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Compressor delegate;
+    private final Path directory;
+    private final long maxBytes;
+    private final long signatureHash;
+    private final AtomicLong size = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param directory created if missing; may be shared with other processes
+     * @param maxBytes  total size of the entries the directory may hold
+     */
+    public CachingCompressor(Compressor delegate, Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.signatureHash = XxHash64.hash(delegate.signature().getBytes(StandardCharsets.UTF_8));
+        size.set(scan().stream().mapToLong(entry -> entry.size).sum());
+    }
+
+    @Override
+    public String signature() {
+        return delegate.signature();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Total bytes of the entries, as last counted by this instance. */
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public void compress(File input, File output) throws IOException {
+        compress(input, output, ProgressListener.NONE);
+    }
+
+    /** On a hit, progress is reported once, after the copy. */
+    @Override
+    public void compress(File input, File output, ProgressListener listener) throws IOException {
+        Path entry = entry(input.toPath());
+        if (serve(entry, output.toPath())) {
+            listener.progress(input.length(), output.length());
+            return;
+        }
+        delegate.compress(input, output, listener);
+        store(output.toPath(), entry);
+    }
+
+    /** Spools the input to a temporary file while hashing it, since a miss needs it twice. */
+    @Override
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        Path spool = Files.createTempFile(directory, TEMP_PREFIX, null);
+        Path result = null;
+        try {
+            XxHash64 hash = new XxHash64();
+            long length = 0;
+            try (OutputStream out = Files.newOutputStream(spool)) {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = input.read(buffer)) > 0) {
+                    hash.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    length += n;
+                }
+            }
+            Path entry = entry(hash.digest(), length);
+            if (!serve(entry, output)) {
+                result = Files.createTempFile(directory, TEMP_PREFIX, null);
+                delegate.compress(spool.toFile(), result.toFile());
+                Files.copy(result, output);
+                publish(result, entry);
+            }
+            output.flush();
+        } finally {
+            Files.deleteIfExists(spool);
+            if (result != null) Files.deleteIfExists(result);
+        }
+    }
+
+    @Override
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        delegate.decompress(input, output);
+    }
+
+    @Override
+    public void decompress(File input, File output) throws IOException {
+        delegate.decompress(input, output);
+    }
+
+    @Override
+    public void decompress(File input, File output, ProgressListener listener) throws IOException {
+        delegate.decompress(input, output, listener);
+    }
+
+    private Path entry(Path input) throws IOException {
+        try (InputStream in = Files.newInputStream(input)) {
+            return entry(XxHash64.hash(in), Files.size(input));
+        }
+    }
+
+    private Path entry(long hash, long length) {
+        return directory.resolve(String.format("%016x-%x-%016x%s", hash, length, signatureHash, SUFFIX));
+    }
+
+    /** Copies the entry to {@code target} if it exists, counting a hit or a miss. */
+    private boolean serve(Path entry, Path target) throws IOException {
+        try {
+            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            return miss(entry, e);
+        }
+        return hit(entry);
+    }
+
+    private boolean serve(Path entry, OutputStream target) throws IOException {
+        try {
+            Files.copy(entry, target);
+        } catch (NoSuchFileException e) {
+            return miss(entry, e);
+        }
+        return hit(entry);
+    }
+
+    private boolean hit(Path entry) {
+        hits.increment();
+        Metrics.count("cache.hits", 1);
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted since the copy; the copy itself is complete
+        }
+        return true;
+    }
+
+    /** A missing target file means the output could not be created, not a cache miss. */
+    private boolean miss(Path entry, NoSuchFileException e) throws NoSuchFileException {
+        if (!entry.toString().equals(e.getFile())) {
+            throw e;
+        }
+        misses.increment();
+        Metrics.count("cache.misses", 1);
+        return false;
+    }
+
+    /** Adds a copy of {@code output} under {@code entry}. */
+    private void store(Path output, Path entry) throws IOException {
+        if (Files.size(output) > maxBytes) {
+            return;
+        }
+        Path temp = Files.createTempFile(directory, TEMP_PREFIX, null);
+        try {
+            Files.copy(output, temp, StandardCopyOption.REPLACE_EXISTING);
+            publish(temp, entry);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Moves a finished temporary file in the directory to {@code entry}, then evicts if
+     * over budget. Files larger than the whole budget are left where they are.
+     */
+    private void publish(Path temp, Path entry) throws IOException {
+        long bytes = Files.size(temp);
+        if (bytes > maxBytes) {
+            return;
+        }
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.count("cache.bytesStored", bytes);
+        if (size.addAndGet(bytes) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Recounts the directory, which other processes may have changed, and deletes the
+     * least recently used entries until the rest fit the budget.
+     */
+    private synchronized void evict() throws IOException {
+        List<Entry> entries = scan();
+        long total = entries.stream().mapToLong(entry -> entry.size).sum();
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+            Entry entry = entries.get(i);
+            if (Files.deleteIfExists(entry.path)) {
+                evictions.increment();
+                Metrics.count("cache.evictions", 1);
+            }
+            total -= entry.size;
+        }
+        size.set(total);
+    }
+
+    /** Every entry in the directory; temporary files from crashed writers are deleted on the way. */
+    private List<Entry> scan() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                long modified = attributes.lastModifiedTime().toMillis();
+                if (name.endsWith(SUFFIX)) {
+                    entries.add(new Entry(path, attributes.size(), modified));
+                } else if (name.startsWith(TEMP_PREFIX) && now - modified > STALE_TEMP_MILLIS) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
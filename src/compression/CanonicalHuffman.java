@@ -0,0 +1,204 @@
+package compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Canonical Huffman codes: only the code length of every symbol is stored, the codes
+ * themselves are reassigned in (length, symbol) order on both sides.
+ */
+final class CanonicalHuffman {
+
+    /** Longest code the decoder accepts; keeps the slow-path peek within 32 bits. */
+    static final int MAX_CODE_LENGTH = 24;
+
+    private CanonicalHuffman() {
+    }
+
+    /**
+     * Huffman code lengths for the given frequencies, limited to {@code maxLength} bits;
+     * unused symbols get length 0.
+     */
+    static int[] codeLengths(int[] freq, int maxLength) {
+        int[] lengths = new int[freq.length];
+        int symbols = 0;
+        for (int f : freq) {
+            if (f > 0) symbols++;
+        }
+        if (symbols == 0) {
+            return lengths;
+        }
+        if (symbols > (1 << maxLength)) {
+            throw new IllegalArgumentException(symbols + " symbols do not fit in " + maxLength + "-bit codes");
+        }
+
+        long[] leaves = new long[symbols];
+        for (int s = 0, k = 0; s < freq.length; s++) {
+            if (freq[s] > 0) leaves[k++] = ((long) freq[s] << 20) | s;
+        }
+        Arrays.sort(leaves);
+        if (symbols == 1) {
+            lengths[(int) (leaves[0] & 0xFFFFF)] = 1;
+            return lengths;
+        }
+
+        // Leaves are already sorted and merged nodes are created in weight order,
+        // so two queues replace the priority queue
+        int nodes = 2 * symbols - 1;
+        long[] weight = new long[nodes];
+        int[] parent = new int[nodes];
+        for (int i = 0; i < symbols; i++) {
+            weight[i] = leaves[i] >>> 20;
+        }
+        int leaf = 0;
+        int merged = symbols;
+        for (int next = symbols; next < nodes; next++) {
+            int a = (merged == next || (leaf < symbols && weight[leaf] <= weight[merged])) ? leaf++ : merged++;
+            int b = (merged == next || (leaf < symbols && weight[leaf] <= weight[merged])) ? leaf++ : merged++;
+            weight[next] = weight[a] + weight[b];
+            parent[a] = next;
+            parent[b] = next;
+        }
+
+        int[] depth = new int[nodes];
+        int deepest = 0;
+        for (int i = nodes - 2; i >= 0; i--) {
+            depth[i] = depth[parent[i]] + 1;
+            deepest = Math.max(deepest, depth[i]);
+        }
+        if (deepest <= maxLength) {
+            for (int i = 0; i < symbols; i++) {
+                lengths[(int) (leaves[i] & 0xFFFFF)] = depth[i];
+            }
+            return lengths;
+        }
+
+        // Too deep: move leaves up as in JPEG Annex K.3, then hand out the resulting
+        // lengths again, shortest to the most frequent symbols
+        int[] lengthCount = new int[deepest + 1];
+        for (int i = 0; i < symbols; i++) {
+            lengthCount[depth[i]]++;
+        }
+        for (int len = deepest; len > maxLength; len--) {
+            while (lengthCount[len] > 0) {
+                int j = len - 2;
+                while (lengthCount[j] == 0) j--;
+                lengthCount[len] -= 2;
+                lengthCount[len - 1]++;
+                lengthCount[j + 1] += 2;
+                lengthCount[j]--;
+            }
+        }
+        int len = 1;
+        for (int i = symbols - 1; i >= 0; i--) {
+            while (lengthCount[len] == 0) len++;
+            lengthCount[len]--;
+            lengths[(int) (leaves[i] & 0xFFFFF)] = len;
+        }
+        return lengths;
+    }
+
+    /** Canonical MSB-first codes for the given lengths. */
+    static int[] codes(int[] lengths) {
+        int maxLength = 0;
+        for (int len : lengths) maxLength = Math.max(maxLength, len);
+        int[] lengthCount = new int[maxLength + 1];
+        for (int len : lengths) {
+            if (len > 0) lengthCount[len]++;
+        }
+
+        int[] nextCode = new int[maxLength + 1];
+        int code = 0;
+        for (int len = 1; len <= maxLength; len++) {
+            code = (code + lengthCount[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+
+        int[] codes = new int[lengths.length];
+        for (int s = 0; s < lengths.length; s++) {
+            if (lengths[s] > 0) codes[s] = nextCode[lengths[s]]++;
+        }
+        return codes;
+    }
+
+    /**
+     * Table-driven canonical decoder. The next {@link #TABLE_BITS} bits index a table that
+     * resolves every short code and its length in one lookup; longer codes fall back to a
+     * per-length range check on a single peek of the longest code.
+     */
+    static final class Decoder {
+        static final int TABLE_BITS = 10;
+
+        private final int[] table = new int[1 << TABLE_BITS];
+        private final int maxLength;
+        private final int[] firstCode;
+        private final int[] codeLimit;
+        private final int[] firstIndex;
+        private final int[] symbols;
+
+        Decoder(int[] lengths) throws IOException {
+            int max = 0;
+            int used = 0;
+            for (int len : lengths) {
+                if (len > 0) used++;
+                max = Math.max(max, len);
+            }
+            if (max > MAX_CODE_LENGTH) {
+                throw new IOException("Invalid Huffman code length: " + max);
+            }
+            maxLength = max;
+
+            int[] lengthCount = new int[max + 1];
+            for (int len : lengths) {
+                if (len > 0) lengthCount[len]++;
+            }
+            firstCode = new int[max + 1];
+            codeLimit = new int[max + 1];
+            firstIndex = new int[max + 2];
+            int code = 0;
+            for (int len = 1; len <= max; len++) {
+                code = (code + lengthCount[len - 1]) << 1;
+                firstCode[len] = code;
+                codeLimit[len] = code + lengthCount[len];
+                firstIndex[len + 1] = firstIndex[len] + lengthCount[len];
+                if (codeLimit[len] > (1 << len)) {
+                    throw new IOException("Corrupted Huffman code lengths");
+                }
+            }
+
+            symbols = new int[used];
+            int[] next = Arrays.copyOf(firstIndex, max + 1);
+            for (int s = 0; s < lengths.length; s++) {
+                int len = lengths[s];
+                if (len == 0) continue;
+                int index = next[len]++;
+                symbols[index] = s;
+                if (len <= TABLE_BITS) {
+                    int prefix = (firstCode[len] + index - firstIndex[len]) << (TABLE_BITS - len);
+                    Arrays.fill(table, prefix, prefix + (1 << (TABLE_BITS - len)), (s << 5) | len);
+                }
+            }
+        }
+
+        int decode(BitReader in) throws IOException {
+            int entry = table[in.peek(TABLE_BITS)];
+            if (entry != 0) {
+                in.skip(entry & 0x1F);
+                return entry >>> 5;
+            }
+            return decodeLong(in);
+        }
+
+        private int decodeLong(BitReader in) throws IOException {
+            int bits = in.peek(maxLength);
+            for (int len = TABLE_BITS + 1; len <= maxLength; len++) {
+                int code = bits >>> (maxLength - len);
+                if (code < codeLimit[len]) {
+                    in.skip(len);
+                    return symbols[firstIndex[len] + code - firstCode[len]];
+                }
+            }
+            throw new IOException("Corrupted Huffman data");
+        }
+    }
+}
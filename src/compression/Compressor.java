@@ -1,9 +1,82 @@
 package compression;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * Encoder and decoder for one compressed format. Implementations keep no state between
+ * calls, so a single instance may compress and decompress on any number of threads at once.
+ */
 public interface Compressor {
-    void compress(File input, File output) throws IOException;
-    void decompress(File input, File output) throws IOException;
-}
\ No newline at end of file
+
+    /**
+     * Compresses everything readable from {@code input} into {@code output}.
+     * Implementations flush {@code output} when done but close neither stream.
+     */
+    void compress(InputStream input, OutputStream output) throws IOException;
+
+    /**
+     * Restores the original data from {@code input} into {@code output}.
+     * Implementations flush {@code output} when done but close neither stream.
+     */
+    void decompress(InputStream input, OutputStream output) throws IOException;
+
+    /**
+     * Names the format and every setting that changes the compressed output. Compressors
+     * with equal signatures must produce the same bytes for the same input; the default,
+     * the class name, suits codecs without settings.
+     */
+    default String signature() {
+        return getClass().getName();
+    }
+
+    default void compress(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(output));
+        compress(new BufferedInputStream(Channels.newInputStream(input)), out);
+        out.flush();
+    }
+
+    default void decompress(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(output));
+        decompress(new BufferedInputStream(Channels.newInputStream(input)), out);
+        out.flush();
+    }
+
+    default void compress(File input, File output) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            compress(in, out);
+        }
+    }
+
+    default void decompress(File input, File output) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            decompress(in, out);
+        }
+    }
+
+    /**
+     * Like {@link #compress(File, File)}, reporting file bytes read and written as it
+     * goes. Interrupting the calling thread aborts with an {@link InterruptedIOException}.
+     */
+    default void compress(File input, File output, ProgressListener listener) throws IOException {
+        ProgressTracker tracker = new ProgressTracker(listener);
+        try (InputStream in = new BufferedInputStream(tracker.count(new FileInputStream(input)));
+             OutputStream out = new BufferedOutputStream(tracker.count(new FileOutputStream(output)))) {
+            compress(in, out);
+        }
+        tracker.finish();
+    }
+
+    default void decompress(File input, File output, ProgressListener listener) throws IOException {
+        ProgressTracker tracker = new ProgressTracker(listener);
+        try (InputStream in = new BufferedInputStream(tracker.count(new FileInputStream(input)));
+             OutputStream out = new BufferedOutputStream(tracker.count(new FileOutputStream(output)))) {
+            decompress(in, out);
+        }
+        tracker.finish();
+    }
+}
@@ -0,0 +1,302 @@
+package compression;
+
+/**
+ * 8x8 forward and inverse DCT kernels on natural-order (row-major) blocks.
+ * <p>
+ * The fast float path is the AAN factorization (5 multiplies per 1-D pass); its outputs
+ * carry a per-coefficient scale that is folded into the quantization tables built by
+ * {@link #floatDivisors} and {@link #floatMultipliers}. The integer path is the
+ * Loeffler-Ligtenberg-Moschytz factorization in 13-bit fixed point. DCTTest measures
+ * both against the naive double-precision transform.
+ */
+final class DCT {
+    static final int SIZE = 8;
+    static final int COEFFICIENTS = SIZE * SIZE;
+
+    private DCT() {
+    }
+
+    // cos(k * PI / 16) * sqrt(2) for k > 0, 1 for k = 0
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602,
+            1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    /** Reciprocal divisors that quantize the output of {@link #forwardFloat}. */
+    static float[] floatDivisors(int[] qTable) {
+        float[] divisors = new float[COEFFICIENTS];
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            divisors[i] = (float) (1.0 / (qTable[i] * AAN_SCALE[i / SIZE] * AAN_SCALE[i % SIZE] * 8.0));
+        }
+        return divisors;
+    }
+
+    /** Dequantization multipliers with the AAN scale and final 1/8 folded in. */
+    static float[] floatMultipliers(int[] qTable) {
+        float[] multipliers = new float[COEFFICIENTS];
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            multipliers[i] = (float) (qTable[i] * AAN_SCALE[i / SIZE] * AAN_SCALE[i % SIZE] / 8.0);
+        }
+        return multipliers;
+    }
+
+    /** In-place AAN forward DCT; output k is the true coefficient times 8 * scale(row) * scale(col). */
+    static void forwardFloat(float[] data) {
+        for (int off = 0; off < COEFFICIENTS; off += SIZE) {
+            forwardFloat1D(data, off, 1);
+        }
+        for (int col = 0; col < SIZE; col++) {
+            forwardFloat1D(data, col, SIZE);
+        }
+    }
+
+    private static void forwardFloat1D(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // Even part
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // Odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    /** AAN inverse DCT of quantized coefficients, dequantizing with {@link #floatMultipliers}. */
+    static void inverseFloat(int[] coefficients, float[] multipliers, float[] out) {
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            out[i] = coefficients[i] * multipliers[i];
+        }
+        for (int col = 0; col < SIZE; col++) {
+            inverseFloat1D(out, col, SIZE);
+        }
+        for (int off = 0; off < COEFFICIENTS; off += SIZE) {
+            inverseFloat1D(out, off, 1);
+        }
+    }
+
+    private static void inverseFloat1D(float[] d, int o, int s) {
+        // Even part
+        float tmp0 = d[o];
+        float tmp1 = d[o + 2 * s];
+        float tmp2 = d[o + 4 * s];
+        float tmp3 = d[o + 6 * s];
+
+        float tmp10 = tmp0 + tmp2;
+        float tmp11 = tmp0 - tmp2;
+        float tmp13 = tmp1 + tmp3;
+        float tmp12 = (tmp1 - tmp3) * 1.414213562f - tmp13;
+
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        // Odd part
+        float tmp4 = d[o + s];
+        float tmp5 = d[o + 3 * s];
+        float tmp6 = d[o + 5 * s];
+        float tmp7 = d[o + 7 * s];
+
+        float z13 = tmp6 + tmp5;
+        float z10 = tmp6 - tmp5;
+        float z11 = tmp4 + tmp7;
+        float z12 = tmp4 - tmp7;
+
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562f;
+
+        float z5 = (z10 + z12) * 1.847759065f;
+        tmp10 = 1.082392200f * z12 - z5;
+        tmp12 = -2.613125930f * z10 + z5;
+
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+
+        d[o] = tmp0 + tmp7;
+        d[o + 7 * s] = tmp0 - tmp7;
+        d[o + s] = tmp1 + tmp6;
+        d[o + 6 * s] = tmp1 - tmp6;
+        d[o + 2 * s] = tmp2 + tmp5;
+        d[o + 5 * s] = tmp2 - tmp5;
+        d[o + 4 * s] = tmp3 + tmp4;
+        d[o + 3 * s] = tmp3 - tmp4;
+    }
+
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    private static int descale(int x, int n) {
+        return (x + (1 << (n - 1))) >> n;
+    }
+
+    /** In-place fixed-point forward DCT; outputs are the true coefficients times 8. */
+    static void forwardInt(int[] data) {
+        for (int off = 0; off < COEFFICIENTS; off += SIZE) {
+            forwardInt1D(data, off, 1, CONST_BITS - PASS1_BITS, 0, PASS1_BITS);
+        }
+        for (int col = 0; col < SIZE; col++) {
+            forwardInt1D(data, col, SIZE, CONST_BITS + PASS1_BITS, PASS1_BITS, 0);
+        }
+    }
+
+    private static int scaleEven(int x, int descaleBits, int upBits) {
+        return descaleBits > 0 ? descale(x, descaleBits) : x << upBits;
+    }
+
+    private static void forwardInt1D(int[] d, int o, int s, int oddBits, int evenDescale, int evenUp) {
+        int tmp0 = d[o] + d[o + 7 * s];
+        int tmp7 = d[o] - d[o + 7 * s];
+        int tmp1 = d[o + s] + d[o + 6 * s];
+        int tmp6 = d[o + s] - d[o + 6 * s];
+        int tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        int tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        int tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        int tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // Even part
+        int tmp10 = tmp0 + tmp3;
+        int tmp13 = tmp0 - tmp3;
+        int tmp11 = tmp1 + tmp2;
+        int tmp12 = tmp1 - tmp2;
+
+        d[o] = scaleEven(tmp10 + tmp11, evenDescale, evenUp);
+        d[o + 4 * s] = scaleEven(tmp10 - tmp11, evenDescale, evenUp);
+
+        int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+        d[o + 2 * s] = descale(z1 + tmp13 * FIX_0_765366865, oddBits);
+        d[o + 6 * s] = descale(z1 - tmp12 * FIX_1_847759065, oddBits);
+
+        // Odd part
+        z1 = tmp4 + tmp7;
+        int z2 = tmp5 + tmp6;
+        int z3 = tmp4 + tmp6;
+        int z4 = tmp5 + tmp7;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+
+        tmp4 *= FIX_0_298631336;
+        tmp5 *= FIX_2_053119869;
+        tmp6 *= FIX_3_072711026;
+        tmp7 *= FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+
+        d[o + 7 * s] = descale(tmp4 + z1 + z3, oddBits);
+        d[o + 5 * s] = descale(tmp5 + z2 + z4, oddBits);
+        d[o + 3 * s] = descale(tmp6 + z2 + z3, oddBits);
+        d[o + s] = descale(tmp7 + z1 + z4, oddBits);
+    }
+
+    /** Fixed-point inverse DCT of quantized coefficients, dequantizing with {@code qTable}. */
+    static void inverseInt(int[] coefficients, int[] qTable, int[] out) {
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            out[i] = coefficients[i] * qTable[i];
+        }
+        for (int col = 0; col < SIZE; col++) {
+            inverseInt1D(out, col, SIZE, CONST_BITS - PASS1_BITS);
+        }
+        for (int off = 0; off < COEFFICIENTS; off += SIZE) {
+            inverseInt1D(out, off, 1, CONST_BITS + PASS1_BITS + 3);
+        }
+    }
+
+    private static void inverseInt1D(int[] d, int o, int s, int bits) {
+        // Even part
+        int z2 = d[o + 2 * s];
+        int z3 = d[o + 6 * s];
+        int z1 = (z2 + z3) * FIX_0_541196100;
+        int tmp2 = z1 - z3 * FIX_1_847759065;
+        int tmp3 = z1 + z2 * FIX_0_765366865;
+
+        z2 = d[o];
+        z3 = d[o + 4 * s];
+        int tmp0 = (z2 + z3) << CONST_BITS;
+        int tmp1 = (z2 - z3) << CONST_BITS;
+
+        int tmp10 = tmp0 + tmp3;
+        int tmp13 = tmp0 - tmp3;
+        int tmp11 = tmp1 + tmp2;
+        int tmp12 = tmp1 - tmp2;
+
+        // Odd part
+        tmp0 = d[o + 7 * s];
+        tmp1 = d[o + 5 * s];
+        tmp2 = d[o + 3 * s];
+        tmp3 = d[o + s];
+
+        z1 = tmp0 + tmp3;
+        z2 = tmp1 + tmp2;
+        z3 = tmp0 + tmp2;
+        int z4 = tmp1 + tmp3;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+
+        tmp0 *= FIX_0_298631336;
+        tmp1 *= FIX_2_053119869;
+        tmp2 *= FIX_3_072711026;
+        tmp3 *= FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+
+        tmp0 += z1 + z3;
+        tmp1 += z2 + z4;
+        tmp2 += z2 + z3;
+        tmp3 += z1 + z4;
+
+        d[o] = descale(tmp10 + tmp3, bits);
+        d[o + 7 * s] = descale(tmp10 - tmp3, bits);
+        d[o + s] = descale(tmp11 + tmp2, bits);
+        d[o + 6 * s] = descale(tmp11 - tmp2, bits);
+        d[o + 2 * s] = descale(tmp12 + tmp1, bits);
+        d[o + 5 * s] = descale(tmp12 - tmp1, bits);
+        d[o + 3 * s] = descale(tmp13 + tmp0, bits);
+        d[o + 4 * s] = descale(tmp13 - tmp0, bits);
+    }
+}
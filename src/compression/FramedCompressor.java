@@ -0,0 +1,380 @@
+package compression;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Splits the input into fixed-size byte blocks and codes each one independently, so blocks can be
+ * compressed and decompressed on several threads. The output does not depend on the
+ * executor; it costs a little ratio since every block starts with an empty model.
+ * A trailer index maps uncompressed offsets to frames, so {@link #decompressRange} decodes
+ * only the blocks a range touches.
+ * <p>
+ * Block buffers are pooled per instance, up to one window of blocks in flight, so an
+ * instance shared by many threads reuses them across calls.
+ */
+public class FramedCompressor implements Compressor {
+
+    private static final byte[] MAGIC = {'F', 'R', 'M'};
+    private static final int VERSION = 3;
+    private static final int INDEX_MAGIC = 0x46494458; // "FIDX"
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final BlockCodec codec;
+    private final int blockSize;
+    private final Executor executor;
+    private final int window;
+    private final ScratchPool<byte[]> blocks;
+
+    public FramedCompressor(BlockCodec codec) {
+        this(codec, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param blockSize bytes per block
+     * @param executor  codes the blocks; {@code null} codes everything on the calling thread
+     */
+    public FramedCompressor(BlockCodec codec, int blockSize, Executor executor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        // Blocks in flight, bounding memory to a few blocks per core
+        this.window = 2 * Runtime.getRuntime().availableProcessors();
+        this.blocks = new ScratchPool<>(window + 1, () -> new byte[blockSize]);
+    }
+
+    /** The executor does not change the output, so it is not part of the signature. */
+    @Override
+    public String signature() {
+        String inner = codec instanceof Compressor ? ((Compressor) codec).signature() : codec.getClass().getName();
+        return "framed v" + VERSION + " [" + inner + "] block " + blockSize;
+    }
+
+    /*
+     * Layout: magic, version, codec id, block size, then one frame per block (byte
+     * count, compressed length, compressed bytes) and a byte count of 0 at the end.
+     * The index follows: frame count, (data offset, file offset) per frame, the file
+     * offset of the index and INDEX_MAGIC. Versions 1 and 2 coded chars rather than
+     * bytes and are no longer read.
+     */
+    @Override
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(codec.codecId());
+        out.writeInt(blockSize);
+
+        // DataOutputStream.size() saturates at 2 GB, so positions are tracked here
+        Index index = new Index(MAGIC.length + 2L + Integer.BYTES);
+        ArrayDeque<Frame<byte[]>> pending = new ArrayDeque<>();
+        try {
+            while (true) {
+                byte[] block = blocks.acquire();
+                int length = input.readNBytes(block, 0, blockSize);
+                if (length == 0) {
+                    blocks.release(block);
+                    break;
+                }
+                if (pending.size() == window) {
+                    writeFrame(pending.poll(), out, index);
+                }
+                pending.add(new Frame<>(length, submit(() -> {
+                    try {
+                        return codec.encodeBlock(block, length);
+                    } finally {
+                        blocks.release(block);
+                    }
+                })));
+            }
+            while (!pending.isEmpty()) {
+                writeFrame(pending.poll(), out, index);
+            }
+        } finally {
+            pending.forEach(frame -> frame.result.cancel(true));
+        }
+        out.writeInt(0);
+        index.write(out);
+        out.flush();
+    }
+
+    private void writeFrame(Frame<byte[]> frame, DataOutputStream out, Index index) throws IOException {
+        byte[] data = join(frame.result);
+        index.add(frame.length, 2 * Integer.BYTES + data.length);
+        out.writeInt(frame.length);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    @Override
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        OutputStream out = new BufferedOutputStream(output);
+        int frameSize = readHeader(in);
+
+        ArrayDeque<Frame<byte[]>> pending = new ArrayDeque<>();
+        try {
+            int length;
+            while ((length = in.readInt()) != 0) {
+                if (length < 0 || length > frameSize) {
+                    throw new IOException("Corrupted frame header");
+                }
+                byte[] data = readFully(in, in.readInt());
+                if (pending.size() == window) {
+                    writeBlock(pending.poll(), out);
+                }
+                int n = length;
+                pending.add(new Frame<>(n, submit(() -> {
+                    byte[] block = n <= blockSize ? blocks.acquire() : new byte[n];
+                    codec.decodeBlock(data, block, n);
+                    return block;
+                })));
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(pending.poll(), out);
+            }
+        } finally {
+            pending.forEach(frame -> frame.result.cancel(true));
+        }
+        out.flush();
+    }
+
+    /** Writes the first {@code frame.length} bytes of the result and returns pooled buffers. */
+    private void writeBlock(Frame<byte[]> frame, OutputStream out) throws IOException {
+        byte[] block = join(frame.result);
+        out.write(block, 0, frame.length);
+        if (block.length == blockSize) {
+            blocks.release(block);
+        }
+    }
+
+    /**
+     * Decompresses {@code length} bytes starting at uncompressed offset {@code offset},
+     * reading only the frames that overlap the range. The range is clipped to the end of the data.
+     */
+    public void decompressRange(File file, long offset, long length, OutputStream output) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative range: " + offset + ", " + length);
+        }
+        OutputStream out = new BufferedOutputStream(output);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataInputStream header = new DataInputStream(
+                    new ByteArrayInputStream(readAt(channel, 0, MAGIC.length + 2 + Integer.BYTES)));
+            int frameSize = readHeader(header);
+            Index index = Index.read(channel);
+            long fileSize = channel.size();
+
+            long end = offset + Math.min(length, Long.MAX_VALUE - offset);
+            ArrayDeque<Frame<byte[]>> pending = new ArrayDeque<>();
+            try {
+                for (int i = index.find(offset); i < index.size && index.textOffsets[i] < end; i++) {
+                    long frameStart = index.textOffsets[i];
+                    long filePosition = index.fileOffsets[i];
+                    if (filePosition < 0 || filePosition > fileSize - 2 * Integer.BYTES) {
+                        throw new IOException("Corrupted block index");
+                    }
+                    DataInputStream frameHeader = new DataInputStream(
+                            new ByteArrayInputStream(readAt(channel, filePosition, 2 * Integer.BYTES)));
+                    int n = frameHeader.readInt();
+                    int size = frameHeader.readInt();
+                    // Checked before anything is allocated for the frame
+                    if (n <= 0 || n > frameSize || size < 0 || filePosition + 2 * Integer.BYTES + size > fileSize) {
+                        throw new IOException("Corrupted frame header");
+                    }
+                    if (offset >= frameStart + n) {
+                        continue; // range starts past the end of the data
+                    }
+                    byte[] data = readAt(channel, filePosition + 2 * Integer.BYTES, size);
+                    int from = (int) Math.max(0, offset - frameStart);
+                    int to = (int) Math.min(n, end - frameStart);
+                    if (pending.size() == window) {
+                        writeBlock(pending.poll(), out);
+                    }
+                    pending.add(new Frame<>(to - from, submit(() -> {
+                        byte[] block = n <= blockSize ? blocks.acquire() : new byte[n];
+                        codec.decodeBlock(data, block, n);
+                        byte[] range = Arrays.copyOfRange(block, from, to);
+                        if (block.length == blockSize) {
+                            blocks.release(block);
+                        }
+                        return range;
+                    })));
+                }
+                while (!pending.isEmpty()) {
+                    writeBlock(pending.poll(), out);
+                }
+            } finally {
+                pending.forEach(frame -> frame.result.cancel(true));
+            }
+        }
+        out.flush();
+    }
+
+    private static byte[] readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Compressed data is truncated");
+            }
+        }
+        return buffer.array();
+    }
+
+    /** Checks the header and returns the block size the file was written with. */
+    private int readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a framed compressed file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported framed format version: " + version);
+        }
+        int codecId = in.readUnsignedByte();
+        if (codecId != codec.codecId()) {
+            throw new IOException("File was compressed with a different codec (id " + codecId + ")");
+        }
+        int size = in.readInt();
+        if (size <= 0) {
+            throw new IOException("Corrupted framed header");
+        }
+        return size;
+    }
+
+    private static byte[] readFully(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Corrupted frame header");
+        }
+        byte[] data = in.readNBytes(length);
+        if (data.length != length) {
+            throw new EOFException("Compressed data is truncated");
+        }
+        return data;
+    }
+
+    private interface BlockTask<T> {
+        T call() throws IOException;
+    }
+
+    private <T> CompletableFuture<T> submit(BlockTask<T> task) {
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(task.call());
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Uncompressed and file offset of every frame, in file order. */
+    private static final class Index {
+        long[] textOffsets = new long[16];
+        long[] fileOffsets = new long[16];
+        int size;
+        long textPosition;
+        long filePosition;
+
+        Index(long firstFrame) {
+            this.filePosition = firstFrame;
+        }
+
+        void add(int length, int bytes) {
+            if (size == textOffsets.length) {
+                textOffsets = Arrays.copyOf(textOffsets, size * 2);
+                fileOffsets = Arrays.copyOf(fileOffsets, size * 2);
+            }
+            textOffsets[size] = textPosition;
+            fileOffsets[size] = filePosition;
+            size++;
+            textPosition += length;
+            filePosition += bytes;
+        }
+
+        /** Writes the index right after the end marker, which sits at {@code filePosition}. */
+        void write(DataOutputStream out) throws IOException {
+            long start = filePosition + Integer.BYTES;
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(textOffsets[i]);
+                out.writeLong(fileOffsets[i]);
+            }
+            out.writeLong(start);
+            out.writeInt(INDEX_MAGIC);
+        }
+
+        static Index read(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < TRAILER_SIZE) {
+                throw new IOException("Compressed file has no block index");
+            }
+            ByteBuffer trailer = ByteBuffer.wrap(readAt(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE));
+            long start = trailer.getLong();
+            if (trailer.getInt() != INDEX_MAGIC || start < 0 || start > fileSize - TRAILER_SIZE - Integer.BYTES) {
+                throw new IOException("Compressed file has no block index");
+            }
+            long entriesSize = fileSize - TRAILER_SIZE - start - Integer.BYTES;
+            ByteBuffer entries = ByteBuffer.wrap(readAt(channel, start, (int) Math.min(entriesSize + Integer.BYTES, Integer.MAX_VALUE)));
+            int size = entries.getInt();
+            if (size < 0 || (long) size * 2 * Long.BYTES != entriesSize) {
+                throw new IOException("Corrupted block index");
+            }
+            Index index = new Index(0);
+            index.textOffsets = new long[size];
+            index.fileOffsets = new long[size];
+            index.size = size;
+            for (int i = 0; i < size; i++) {
+                index.textOffsets[i] = entries.getLong();
+                index.fileOffsets[i] = entries.getLong();
+            }
+            return index;
+        }
+
+        /** Index of the frame holding uncompressed offset {@code offset}, or {@code size} past the end. */
+        int find(long offset) {
+            int i = Arrays.binarySearch(textOffsets, 0, size, offset);
+            return i >= 0 ? i : Math.max(0, -i - 2);
+        }
+    }
+
+    private static final class Frame<T> {
+        final int length;
+        final CompletableFuture<T> result;
+
+        Frame(int length, CompletableFuture<T> result) {
+            this.length = length;
+            this.result = result;
+        }
+    }
+}
@@ -1,131 +1,222 @@
 package compression;
 
 import java.io.*;
-import java.util.*;
 
+/**
+ * Entropy coder for quantized 8x8 blocks in the baseline-JPEG style. The DC difference is
+ * coded as its magnitude category, each nonzero AC coefficient as one (zero run, category)
+ * symbol, and both are followed by the raw amplitude bits. DC and AC have separate
+ * Huffman tables of at most 16 and 256 symbols.
+ */
 public class HuffmanCodec {
 
-    private static class Node implements Comparable<Node> {
-        short value;
-        int freq;
-        Node left, right;
-
-        Node(short value, int freq) {
-            this.value = value;
-            this.freq = freq;
+    private static final int COEFFICIENTS = 64;
+    private static final int DC_SYMBOLS = 16;
+    private static final int AC_SYMBOLS = 256;
+    private static final int MAX_CODE_LENGTH = 16;
+
+    private static final int EOB = 0x00;
+    private static final int ZRL = 0xF0;
+
+    /**
+     * Codes {@code blocks.size() / 64} blocks of zigzag-ordered coefficients. The DC
+     * predictor starts at zero, so every call produces an independent segment.
+     */
+    public void compressRLE(SymbolBuffer blocks, OutputStream out) throws IOException {
+        short[] coefficients = blocks.array();
+        int count = blocks.size();
+
+        int[] dcFreq = new int[DC_SYMBOLS];
+        int[] acFreq = new int[AC_SYMBOLS];
+        int prevDC = 0;
+        for (int off = 0; off < count; off += COEFFICIENTS) {
+            dcFreq[category(coefficients[off] - prevDC)]++;
+            prevDC = coefficients[off];
+            int run = 0;
+            for (int k = 1; k < COEFFICIENTS; k++) {
+                int coef = coefficients[off + k];
+                if (coef == 0) {
+                    run++;
+                    continue;
+                }
+                for (; run > 15; run -= 16) acFreq[ZRL]++;
+                acFreq[(run << 4) | category(coef)]++;
+                run = 0;
+            }
+            if (run > 0) acFreq[EOB]++;
         }
 
-        Node(Node left, Node right) {
-            this.left = left;
-            this.right = right;
-            this.freq = left.freq + right.freq;
+        int[] dcLengths = CanonicalHuffman.codeLengths(dcFreq, MAX_CODE_LENGTH);
+        int[] acLengths = CanonicalHuffman.codeLengths(acFreq, MAX_CODE_LENGTH);
+        int[] dcCodes = CanonicalHuffman.codes(dcLengths);
+        int[] acCodes = CanonicalHuffman.codes(acLengths);
+        if (Metrics.isEnabled()) {
+            Metrics.record("jpeg.acTableSymbols", countSymbols(acLengths));
         }
 
-        boolean isLeaf() {
-            return left == null && right == null;
-        }
+        // Зберігаємо таблиці
+        writeTable(dcLengths, out);
+        writeTable(acLengths, out);
 
-        @Override
-        public int compareTo(Node o) {
-            return Integer.compare(this.freq, o.freq);
+        // Записуємо закодовані біти
+        BitWriter bits = new BitWriter(out);
+        prevDC = 0;
+        for (int off = 0; off < count; off += COEFFICIENTS) {
+            int diff = coefficients[off] - prevDC;
+            prevDC = coefficients[off];
+            int size = category(diff);
+            bits.write(dcCodes[size], dcLengths[size]);
+            if (size > 0) bits.write(amplitude(diff, size), size);
+
+            int run = 0;
+            for (int k = 1; k < COEFFICIENTS; k++) {
+                int coef = coefficients[off + k];
+                if (coef == 0) {
+                    run++;
+                    continue;
+                }
+                for (; run > 15; run -= 16) bits.write(acCodes[ZRL], acLengths[ZRL]);
+                size = category(coef);
+                int symbol = (run << 4) | size;
+                bits.write(acCodes[symbol], acLengths[symbol]);
+                bits.write(amplitude(coef, size), size);
+                run = 0;
+            }
+            if (run > 0) bits.write(acCodes[EOB], acLengths[EOB]);
         }
+        bits.flush();
     }
 
-    private void buildCodeMap(Node node, String code, Map<Short, String> map) {
-        if (node.isLeaf()) {
-            map.put(node.value, code);
-        } else {
-            buildCodeMap(node.left, code + "0", map);
-            buildCodeMap(node.right, code + "1", map);
-        }
+    /**
+     * The most bytes {@link #compressRLE} can write for {@code blockCount} blocks: both
+     * tables in full, then 64 symbols per block, each a longest code plus a 16-bit amplitude.
+     */
+    static long maxRLESize(long blockCount) {
+        long tables = 2L * MAX_CODE_LENGTH + DC_SYMBOLS + AC_SYMBOLS;
+        return tables + blockCount * COEFFICIENTS * (MAX_CODE_LENGTH + 16) / 8;
+    }
+
+    /** Decodes {@code blockCount} blocks of zigzag-ordered coefficients, DC undifferenced. */
+    public SymbolBuffer decompressRLE(InputStream in, int blockCount) throws IOException {
+        return decompressRLE(in, blockCount, COEFFICIENTS);
     }
 
-    public void compressRLE(List<Short> input, OutputStream out) throws IOException {
-        Map<Short, Integer> freq = new HashMap<>();
-        for (short val : input) {
-            freq.put(val, freq.getOrDefault(val, 0) + 1);
+    /**
+     * Like {@link #decompressRLE(InputStream, int)}, but keeps only the first {@code keep}
+     * zigzag coefficients of every block. The rest still have to be parsed to find the
+     * next block, but are neither stored nor zero-filled.
+     */
+    public SymbolBuffer decompressRLE(InputStream in, int blockCount, int keep) throws IOException {
+        SymbolBuffer output = new SymbolBuffer();
+        decompressRLE(in, blockCount, keep, output);
+        return output;
+    }
+
+    /** Decodes into {@code output}, replacing what it held, so the caller can reuse one buffer. */
+    void decompressRLE(InputStream in, int blockCount, int keep, SymbolBuffer output) throws IOException {
+        if (keep < 1 || keep > COEFFICIENTS) {
+            throw new IllegalArgumentException("Coefficients to keep must be 1-64: " + keep);
+        }
+        output.clear();
+        output.reserve(blockCount * keep);
+        if (blockCount == 0) {
+            return;
         }
+        CanonicalHuffman.Decoder dc = new CanonicalHuffman.Decoder(readTable(in, DC_SYMBOLS));
+        CanonicalHuffman.Decoder ac = new CanonicalHuffman.Decoder(readTable(in, AC_SYMBOLS));
+        BitReader bits = new BitReader(in);
+
+        int prevDC = 0;
+        for (int block = 0; block < blockCount; block++) {
+            int size = dc.decode(bits);
+            prevDC += size > 0 ? extend(bits.read(size), size) : 0;
+            output.add(prevDC);
+            decodeAC(ac, bits, output, keep);
+        }
+    }
 
-        PriorityQueue<Node> pq = new PriorityQueue<>();
-        for (Map.Entry<Short, Integer> entry : freq.entrySet()) {
-            pq.add(new Node(entry.getKey(), entry.getValue()));
+    /**
+     * Decodes the AC coefficients of one block and stores coefficients 1 to
+     * {@code keep - 1}, zeros included; with {@code keep == 64} that is the whole block.
+     */
+    private static void decodeAC(CanonicalHuffman.Decoder ac, BitReader bits, SymbolBuffer output, int keep)
+            throws IOException {
+        int k = 1;
+        while (k < COEFFICIENTS) {
+            int symbol = ac.decode(bits);
+            int run = symbol >>> 4;
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) break; // EOB
+                run = 16;
+            } else {
+                run++;
+            }
+            if (k + run > COEFFICIENTS) {
+                throw new IOException("Corrupted JPEG block data");
+            }
+            int value = size > 0 ? extend(bits.read(size), size) : 0;
+            for (int z = k; z < k + run - 1 && z < keep; z++) output.add(0);
+            if (k + run - 1 < keep) output.add(value);
+            k += run;
         }
+        for (int z = Math.min(k, keep); z < keep; z++) output.add(0);
+    }
 
-        while (pq.size() > 1) {
-            Node left = pq.poll();
-            Node right = pq.poll();
-            pq.add(new Node(left, right));
+    private static int countSymbols(int[] lengths) {
+        int count = 0;
+        for (int length : lengths) {
+            if (length > 0) count++;
         }
+        return count;
+    }
 
-        Node root = pq.poll();
-        Map<Short, String> codeMap = new HashMap<>();
-        buildCodeMap(root, "", codeMap);
+    /** Magnitude category: the number of bits needed for |value|. */
+    private static int category(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
 
-        // Зберігаємо дерево
-        DataOutputStream dout = new DataOutputStream(out);
-        writeTree(root, dout);
+    /** Negative values are stored as value - 1 in {@code size} bits, as in JPEG. */
+    private static int amplitude(int value, int size) {
+        return value >= 0 ? value : value + (1 << size) - 1;
+    }
 
-        // Зберігаємо кількість символів
-        dout.writeInt(input.size());
+    private static int extend(int bits, int size) {
+        return bits < (1 << (size - 1)) ? bits - (1 << size) + 1 : bits;
+    }
 
-        // Записуємо закодовані біти
-        BitSet bits = new BitSet();
-        int bitIndex = 0;
-        for (short val : input) {
-            String code = codeMap.get(val);
-            for (char c : code.toCharArray()) {
-                if (c == '1') bits.set(bitIndex);
-                bitIndex++;
+    /** DHT-style table: number of codes of each length 1..16, then the symbols in code order. */
+    private static void writeTable(int[] lengths, OutputStream out) throws IOException {
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            int count = 0;
+            for (int length : lengths) {
+                if (length == len) count++;
             }
+            out.write(count);
         }
-
-        byte[] bytes = bits.toByteArray();
-        dout.writeInt(bytes.length);
-        dout.write(bytes);
-    }
-
-    public List<Short> decompressRLE(InputStream in) throws IOException {
-        DataInputStream din = new DataInputStream(in);
-        Node root = readTree(din);
-        int count = din.readInt();
-        int bytesLength = din.readInt();
-        byte[] bytes = new byte[bytesLength];
-        din.readFully(bytes);
-
-        BitSet bits = BitSet.valueOf(bytes);
-        List<Short> output = new ArrayList<>();
-        Node current = root;
-        for (int i = 0, decoded = 0; decoded < count; i++) {
-            current = bits.get(i) ? current.right : current.left;
-            if (current.isLeaf()) {
-                output.add(current.value);
-                current = root;
-                decoded++;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            for (int s = 0; s < lengths.length; s++) {
+                if (lengths[s] == len) out.write(s);
             }
         }
-
-        return output;
     }
 
-    private void writeTree(Node node, DataOutputStream out) throws IOException {
-        if (node.isLeaf()) {
-            out.writeBoolean(true);
-            out.writeShort(node.value);
-        } else {
-            out.writeBoolean(false);
-            writeTree(node.left, out);
-            writeTree(node.right, out);
+    private static int[] readTable(InputStream in, int alphabetSize) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        int[] counts = new int[MAX_CODE_LENGTH + 1];
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            counts[len] = din.readUnsignedByte();
         }
-    }
-
-    private Node readTree(DataInputStream in) throws IOException {
-        boolean isLeaf = in.readBoolean();
-        if (isLeaf) {
-            return new Node(in.readShort(), 0);
-        } else {
-            Node left = readTree(in);
-            Node right = readTree(in);
-            return new Node(left, right);
+        int[] lengths = new int[alphabetSize];
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            for (int i = 0; i < counts[len]; i++) {
+                int symbol = din.readUnsignedByte();
+                if (symbol >= alphabetSize) {
+                    throw new IOException("Corrupted Huffman table");
+                }
+                lengths[symbol] = len;
+            }
         }
+        return lengths;
     }
 }
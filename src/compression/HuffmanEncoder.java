@@ -1,127 +1,178 @@
 package compression;
 
 import java.io.*;
-import java.util.*;
+import java.util.Arrays;
 
-public class HuffmanEncoder implements Compressor {
+/**
+ * Canonical Huffman coding of raw bytes, one code table per block. Instances hold no state
+ * between calls, and the block buffers are pooled, so one instance can serve every thread.
+ */
+public class HuffmanEncoder implements Compressor, BlockCodec {
 
-    private static class Node implements Comparable<Node> {
-        char ch;
-        int freq;
-        Node left, right;
+    private static final byte[] MAGIC = {'H', 'U', 'F'};
+    private static final int VERSION = 2;
 
-        Node(char ch, int freq) {
-            this.ch = ch;
-            this.freq = freq;
-        }
+    // Each block gets its own code table, so memory does not depend on the file size
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int ALPHABET_SIZE = 256;
+    private static final int MAX_CODE_LENGTH = 20;
 
-        Node(Node left, Node right) {
-            this.ch = 0;
-            this.freq = left.freq + right.freq;
-            this.left = left;
-            this.right = right;
-        }
+    private static final ScratchPool<byte[]> BLOCKS = new ScratchPool<>(() -> new byte[BLOCK_SIZE]);
 
-        @Override
-        public int compareTo(Node o) {
-            return Integer.compare(this.freq, o.freq);
+    /*
+     * Works on raw bytes, so any file round-trips exactly whatever its encoding.
+     */
+    @Override
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(output);
+        DataOutputStream out = new DataOutputStream(buffered);
+        BitWriter bits = new BitWriter(buffered);
+
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+
+        byte[] block = BLOCKS.acquire();
+        try {
+            int[] freq = new int[ALPHABET_SIZE];
+            int length;
+            while ((length = input.readNBytes(block, 0, BLOCK_SIZE)) > 0) {
+                out.writeInt(length);
+                compressBlock(block, length, freq, out, bits);
+            }
+        } finally {
+            BLOCKS.release(block);
         }
+        out.writeInt(0);
+        out.flush();
+    }
 
-        boolean isLeaf() {
-            return left == null && right == null;
-        }
+    @Override
+    public String signature() {
+        return "huffman v" + VERSION;
     }
 
-    private Map<Character, String> codeMap = new HashMap<>();
+    @Override
+    public int codecId() {
+        return 1;
+    }
 
-    private void buildCodeMap(Node root, String code) {
-        if (root.isLeaf()) {
-            codeMap.put(root.ch, code);
-            return;
-        }
-        buildCodeMap(root.left, code + "0");
-        buildCodeMap(root.right, code + "1");
+    @Override
+    public byte[] encodeBlock(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 1024);
+        compressBlock(data, length, new int[ALPHABET_SIZE],
+                new DataOutputStream(bytes), new BitWriter(bytes));
+        return bytes.toByteArray();
     }
 
     @Override
-    public void compress(File input, File output) throws IOException {
-        StringBuilder text = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                text.append(line).append("\n");
-            }
-        }
+    public void decodeBlock(byte[] encoded, byte[] data, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        decompressBlock(in, data, length, new int[ALPHABET_SIZE]);
+    }
 
-        Map<Character, Integer> freqMap = new HashMap<>();
-        for (char c : text.toString().toCharArray()) {
-            freqMap.put(c, freqMap.getOrDefault(c, 0) + 1);
+    /*
+     * Block layout (after the byte count): symbol count - 1, (symbol, code length) pairs
+     * in symbol order, payload size in bytes, then the bit-packed canonical codes.
+     */
+    private void compressBlock(byte[] data, int length, int[] freq,
+                               DataOutputStream out, BitWriter bits) throws IOException {
+        Stage model = Stage.start("huffman", "model");
+        Arrays.fill(freq, 0);
+        for (int i = 0; i < length; i++) {
+            freq[data[i] & 0xFF]++;
         }
 
-        PriorityQueue<Node> pq = new PriorityQueue<>();
-        for (Map.Entry<Character, Integer> entry : freqMap.entrySet()) {
-            pq.add(new Node(entry.getKey(), entry.getValue()));
-        }
+        int[] lengths = CanonicalHuffman.codeLengths(freq, MAX_CODE_LENGTH);
+        int[] codes = CanonicalHuffman.codes(lengths);
 
-        while (pq.size() > 1) {
-            Node left = pq.poll();
-            Node right = pq.poll();
-            pq.add(new Node(left, right));
+        int symbolCount = 0;
+        long payloadBits = 0;
+        for (int s = 0; s < ALPHABET_SIZE; s++) {
+            if (lengths[s] > 0) {
+                symbolCount++;
+                payloadBits += (long) freq[s] * lengths[s];
+            }
         }
-
-        Node root = pq.poll();
-        buildCodeMap(root, "");
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
-            // Зберігаємо кодову таблицю
-            writer.write("TABLE\n");
-            for (Map.Entry<Character, String> entry : codeMap.entrySet()) {
-                writer.write((int) entry.getKey().charValue() + ":" + entry.getValue() + "\n");
+        model.end();
+        long payloadBytes = (payloadBits + 7) >>> 3;
+        long blockBytes = 1 + 2L * symbolCount + 4 + payloadBytes;
+        Metrics.record("huffman.symbols", symbolCount);
+        Metrics.count("huffman.compress.bytesIn", length);
+        Metrics.count("huffman.compress.bytesOut", blockBytes);
+
+        // Зберігаємо довжини кодів
+        out.writeByte(symbolCount - 1);
+        for (int s = 0; s < ALPHABET_SIZE; s++) {
+            if (lengths[s] > 0) {
+                out.writeByte(s);
+                out.writeByte(lengths[s]);
             }
-            writer.write("DATA\n");
+        }
+        out.writeInt((int) payloadBytes);
 
-            // Записуємо стиснені дані
-            for (char c : text.toString().toCharArray()) {
-                writer.write(codeMap.get(c));
-            }
+        // Записуємо стиснені дані
+        Stage encode = Stage.start("huffman", "encode");
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xFF;
+            bits.write(codes[b], lengths[b]);
         }
+        bits.flush();
+        encode.end(length, blockBytes);
     }
 
     @Override
-    public void decompress(File input, File output) throws IOException {
-        Map<String, Character> reverseMap = new HashMap<>();
-        StringBuilder encodedText = new StringBuilder();
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
-            String line;
-            boolean readingData = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.equals("TABLE")) continue;
-                if (line.equals("DATA")) {
-                    readingData = true;
-                    continue;
-                }
-                if (!readingData) {
-                    String[] parts = line.split(":");
-                    if (parts.length == 2) {
-                        char ch = (char) Integer.parseInt(parts[0]);
-                        reverseMap.put(parts[1], ch);
-                    }
-                } else {
-                    encodedText.append(line);
-                }
-            }
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        OutputStream out = new BufferedOutputStream(output);
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a Huffman-compressed file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported Huffman format version: " + version);
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
-            StringBuilder currentCode = new StringBuilder();
-            for (char bit : encodedText.toString().toCharArray()) {
-                currentCode.append(bit);
-                if (reverseMap.containsKey(currentCode.toString())) {
-                    writer.write(reverseMap.get(currentCode.toString()));
-                    currentCode.setLength(0);
+        byte[] block = BLOCKS.acquire();
+        try {
+            int[] lengths = new int[ALPHABET_SIZE];
+            int length;
+            while ((length = in.readInt()) != 0) {
+                if (length < 0 || length > BLOCK_SIZE) {
+                    throw new IOException("Corrupted Huffman block header");
                 }
+                decompressBlock(in, block, length, lengths);
+                out.write(block, 0, length);
             }
+        } finally {
+            BLOCKS.release(block);
+        }
+        out.flush();
+    }
+
+    private void decompressBlock(DataInputStream in, byte[] block, int length, int[] lengths) throws IOException {
+        Stage decode = Stage.start("huffman", "decode");
+        Arrays.fill(lengths, 0);
+        int symbolCount = in.readUnsignedByte() + 1;
+        for (int i = 0; i < symbolCount; i++) {
+            lengths[in.readUnsignedByte()] = in.readUnsignedByte();
+        }
+        int payloadBytes = in.readInt();
+        if (payloadBytes < 0) {
+            throw new IOException("Corrupted Huffman block header");
+        }
+
+        CanonicalHuffman.Decoder decoder = new CanonicalHuffman.Decoder(lengths);
+        BitReader bits = new BitReader(in, payloadBytes);
+        for (int i = 0; i < length; i++) {
+            block[i] = (byte) decoder.decode(bits);
         }
+        bits.skipRemaining();
+        long blockBytes = 1 + 2L * symbolCount + 4 + payloadBytes;
+        decode.end(blockBytes, length);
+        Metrics.count("huffman.decompress.bytesIn", blockBytes);
+        Metrics.count("huffman.decompress.bytesOut", length);
     }
 }
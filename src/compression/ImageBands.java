@@ -0,0 +1,242 @@
+package compression;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+/**
+ * Pulls an image out of an {@link ImageReader} a band of rows at a time, so only a
+ * few bands are ever in memory.
+ * <p>
+ * Bands are read with {@link ImageReadParam#setSourceRegion}, except for baseline
+ * PNG and JPEG: their readers decode from the top of the file for every region, which
+ * would make the whole read quadratic. Those are decoded once into a destination whose
+ * buffer only holds one band and wraps around, and each band is handed on as soon as the
+ * reader reports its last row.
+ */
+final class ImageBands {
+
+    /** Receives the bands top to bottom. */
+    interface Consumer {
+        /**
+         * @param band image whose rows {@code 0 .. rows - 1} are image rows {@code y .. y + rows - 1};
+         *             only valid during the call
+         */
+        void band(BufferedImage band, int y, int rows) throws IOException;
+    }
+
+    private ImageBands() {
+    }
+
+    /** Reads image 0 in bands of {@code bandRows}; the last band may be shorter. */
+    static void read(ImageReader reader, int bandRows, Consumer consumer) throws IOException {
+        if (!readSequential(reader, bandRows, consumer)) {
+            readRegions(reader, bandRows, consumer);
+        }
+    }
+
+    private static void readRegions(ImageReader reader, int bandRows, Consumer consumer) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            param.setSourceRegion(new Rectangle(0, y, width, rows));
+            consumer.band(reader.read(0, param), y, rows);
+        }
+    }
+
+    /** Returns false, having read nothing, if the reader cannot be driven this way. */
+    private static boolean readSequential(ImageReader reader, int bandRows, Consumer consumer) throws IOException {
+        String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+        if (!format.equals("png") && !format.equals("jpeg") || progressiveScans(reader) > 1) {
+            return false;
+        }
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            return false;
+        }
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        SampleModel bandModel = type.getSampleModel(width, bandRows);
+        int stride = scanlineStride(bandModel);
+        if (stride <= 0 || (long) stride * height > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        DataBuffer ring = bandModel.createDataBuffer();
+        ColorModel colors = type.getColorModel();
+        BufferedImage band = new BufferedImage(colors, Raster.createWritableRaster(bandModel, ring, null),
+                colors.isAlphaPremultiplied(), null);
+        BufferedImage destination = new BufferedImage(colors,
+                Raster.createWritableRaster(type.getSampleModel(width, height),
+                        new RingBuffer(ring, stride * bandRows, stride * height), null),
+                colors.isAlphaPremultiplied(), null);
+
+        BandListener listener = new BandListener(reader, band, bandRows, height, consumer);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        reader.addIIOReadUpdateListener(listener);
+        try {
+            reader.read(0, param);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            reader.removeIIOReadUpdateListener(listener);
+        }
+        listener.finish();
+        return true;
+    }
+
+    /** NumProgressiveScans from the standard metadata: 7 for interlaced PNG, several for progressive JPEG. */
+    private static int progressiveScans(ImageReader reader) throws IOException {
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return Integer.MAX_VALUE;
+        }
+        Node root = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!node.getNodeName().equals("Compression")) continue;
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeName().equals("NumProgressiveScans")) {
+                    return Integer.parseInt(child.getAttributes().getNamedItem("value").getNodeValue());
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static int scanlineStride(SampleModel model) {
+        if (model instanceof ComponentSampleModel) return ((ComponentSampleModel) model).getScanlineStride();
+        if (model instanceof SinglePixelPackedSampleModel) return ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        if (model instanceof MultiPixelPackedSampleModel) return ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        return -1;
+    }
+
+    /** Passes each band on once the reader has reported its last row. */
+    private static final class BandListener implements IIOReadUpdateListener {
+        private final ImageReader reader;
+        private final BufferedImage band;
+        private final int bandRows;
+        private final int height;
+        private final Consumer consumer;
+        private int next;
+
+        BandListener(ImageReader reader, BufferedImage band, int bandRows, int height, Consumer consumer) {
+            this.reader = reader;
+            this.band = band;
+            this.bandRows = bandRows;
+            this.height = height;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int rows,
+                                int periodX, int periodY, int[] bands) {
+            if (minY < next || periodY != 1 && rows > 1) {
+                reader.abort();
+                throw new UncheckedIOException(new IIOException("Image reader delivered rows out of order"));
+            }
+            int end = minY + rows;
+            try {
+                while (end - next >= bandRows || end == height && next < height) {
+                    deliver();
+                }
+            } catch (IOException e) {
+                reader.abort();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void deliver() throws IOException {
+            int rows = Math.min(bandRows, height - next);
+            consumer.band(band, next, rows);
+            next += rows;
+        }
+
+        void finish() throws IOException {
+            if (next < height) {
+                throw new IIOException("Image reader stopped after " + next + " of " + height + " rows");
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+    }
+
+    /**
+     * Presents a buffer of one band as the buffer of the whole image: element {@code i}
+     * lands at {@code i % period}, so image row {@code y} is band row {@code y % bandRows}.
+     */
+    private static final class RingBuffer extends DataBuffer {
+        private final DataBuffer band;
+        private final int period;
+
+        RingBuffer(DataBuffer band, int period, int size) {
+            super(band.getDataType(), size, band.getNumBanks());
+            this.band = band;
+            this.period = period;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return band.getElem(bank, i % period);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            band.setElem(bank, i % period, val);
+        }
+
+        @Override
+        public float getElemFloat(int bank, int i) {
+            return band.getElemFloat(bank, i % period);
+        }
+
+        @Override
+        public void setElemFloat(int bank, int i, float val) {
+            band.setElemFloat(bank, i % period, val);
+        }
+
+        @Override
+        public double getElemDouble(int bank, int i) {
+            return band.getElemDouble(bank, i % period);
+        }
+
+        @Override
+        public void setElemDouble(int bank, int i, double val) {
+            band.setElemDouble(bank, i % period, val);
+        }
+    }
+}
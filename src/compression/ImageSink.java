@@ -0,0 +1,49 @@
+package compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Receives a decoded image from top to bottom, a band of rows at a time, so the whole
+ * image never has to be held in memory.
+ */
+public interface ImageSink {
+
+    /** Called once before any rows, with the size of the decoded image. */
+    void start(int width, int height) throws IOException;
+
+    /**
+     * @param pixels packed RGB, {@code width} per row starting at index 0; the array is
+     *               reused for the next band, so copy what must outlive the call
+     * @param y      image row of the first row in the band
+     * @param rows   rows in the band
+     */
+    void rows(int[] pixels, int y, int rows) throws IOException;
+
+    /** Called once after the last band. */
+    default void finish() throws IOException {
+    }
+
+    /**
+     * A sink writing {@code format}, a file extension: {@code png}, {@code ppm} and
+     * {@code rgb} (headerless) stream band by band; any other format ImageIO can write,
+     * such as {@code jpg} or {@code bmp}, is written once the whole image is in.
+     */
+    static ImageSink forFormat(String format, OutputStream out) {
+        return switch (format.toLowerCase(Locale.ROOT)) {
+            case "png" -> new PngSink(out);
+            case "ppm", "pnm" -> new PpmSink(out);
+            case "rgb", "raw" -> PpmSink.raw(out);
+            default -> new ImageWriterSink(format, out);
+        };
+    }
+
+    /** {@link #forFormat} by the extension of {@code file}, PNG if it has none. */
+    static ImageSink forFile(File file, OutputStream out) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return forFormat(dot < 0 ? "png" : name.substring(dot + 1), out);
+    }
+}
@@ -0,0 +1,41 @@
+package compression;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Hands the whole image to an ImageIO writer at the end, for formats without a
+ * streaming sink. It holds every pixel until then, and lossy formats encode a second time.
+ */
+final class ImageWriterSink implements ImageSink {
+    private final String format;
+    private final OutputStream out;
+    private final PixelBuffer buffer = new PixelBuffer();
+
+    ImageWriterSink(String format, OutputStream out) {
+        this.format = format;
+        this.out = out;
+    }
+
+    @Override
+    public void start(int width, int height) throws IOException {
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+            throw new IOException("Unsupported image format: " + format);
+        }
+        buffer.start(width, height);
+    }
+
+    @Override
+    public void rows(int[] pixels, int y, int rows) {
+        buffer.rows(pixels, y, rows);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!ImageIO.write(buffer.image(), format, out)) {
+            throw new IOException("No image writer for " + format);
+        }
+        out.flush();
+    }
+}
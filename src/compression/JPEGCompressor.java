@@ -1,23 +1,81 @@
 package compression;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
-import java.awt.Color;
-import java.awt.image.BufferedImage;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Lossy DCT image codec in the baseline-JPEG style, writing its own strip-segmented JPC
+ * format. Instances hold only their settings and may be shared by any number of threads.
+ */
 public class JPEGCompressor implements Compressor {
     private static final int BLOCK_SIZE = 8;
 
+    private static final byte[] MAGIC = {'J', 'P', 'C'};
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = MAGIC.length + 11;
+
+    // Luma rows per independently coded strip (four 16-row MCU rows); fixed so the
+    // output does not depend on how many threads produced it
+    private static final int STRIP_HEIGHT = 64;
+
+    // Images larger than this are compressed strip by strip rather than read whole
+    private static final long STREAMING_PIXELS = 1L << 25;
+
+    // Pixels per batch of strips when streaming, which bounds memory by the image width
+    private static final int BATCH_PIXELS = 1 << 22;
+
+    // Quantized coefficients of one strip channel, between the transform and the entropy coder
+    private static final ScratchPool<SymbolBuffer> COEFFICIENT_BUFFERS = new ScratchPool<>(SymbolBuffer::new);
+
+    /** Which 8x8 transform implementation to run; both produce the same file format. */
+    public enum DctMode {
+        /** AAN factorization in float, scaling folded into the quantization tables. */
+        FLOAT,
+        /** 13-bit fixed-point LLM factorization, no floating point in the transform. */
+        INTEGER
+    }
+
     private final int quality;
+    private final DctMode dctMode;
+    private final Executor executor;
+    private final Kernels kernels = Kernels.get();
+    private final Quantizer lumaQuantizer;
+    private final Quantizer chromaQuantizer;
 
     public JPEGCompressor() {
         this(30);
     }
 
     public JPEGCompressor(int quality) {
+        this(quality, DctMode.FLOAT);
+    }
+
+    public JPEGCompressor(int quality, DctMode dctMode) {
+        this(quality, dctMode, null);
+    }
+
+    /**
+     * @param executor runs the per-strip, per-channel coding tasks; {@code null} codes
+     *                 everything on the calling thread
+     */
+    public JPEGCompressor(int quality, DctMode dctMode, Executor executor) {
         this.quality = Math.max(1, Math.min(100, quality));
+        this.dctMode = dctMode;
+        this.executor = executor;
+        this.lumaQuantizer = new Quantizer(scaleQuantTable(BASE_Q_Y, this.quality));
+        this.chromaQuantizer = new Quantizer(scaleQuantTable(BASE_Q_C, this.quality));
     }
 
     private static final int[][] BASE_Q_Y = {
@@ -34,285 +92,911 @@ public class JPEGCompressor implements Compressor {
             {99,99,99,99,99,99,99,99}, {99,99,99,99,99,99,99,99}
     };
 
-    private int[][] scaleQuantTable(int[][] table) {
+    // Natural (row-major) index of every zigzag position
+    private static final int[] ZIGZAG = new int[BLOCK_SIZE * BLOCK_SIZE];
+
+    static {
+        int index = 0;
+        for (int i = 0; i < 2 * BLOCK_SIZE - 1; i++) {
+            int x = (i < BLOCK_SIZE) ? 0 : i - BLOCK_SIZE + 1;
+            int y = (i < BLOCK_SIZE) ? i : BLOCK_SIZE - 1;
+            while (x < BLOCK_SIZE && y >= 0) {
+                ZIGZAG[index++] = x * BLOCK_SIZE + y;
+                x++;
+                y--;
+            }
+        }
+    }
+
+    // Zigzag position of every natural index
+    private static final int[] ZIGZAG_POSITION = new int[BLOCK_SIZE * BLOCK_SIZE];
+
+    // For a reduced n x n decode: how many zigzag coefficients cover the n x n corner,
+    // and the n-point IDCT basis C(u)/2 * cos((2i + 1) u PI / 2n) at [i * n + u]
+    private static final int[] SCALED_KEEP = new int[BLOCK_SIZE + 1];
+    private static final float[][] SCALED_BASIS = new float[BLOCK_SIZE + 1][];
+
+    static {
+        for (int i = 0; i < ZIGZAG.length; i++) {
+            ZIGZAG_POSITION[ZIGZAG[i]] = i;
+        }
+        for (int n = 1; n < BLOCK_SIZE; n *= 2) {
+            for (int u = 0; u < n; u++) {
+                for (int v = 0; v < n; v++) {
+                    SCALED_KEEP[n] = Math.max(SCALED_KEEP[n], ZIGZAG_POSITION[u * BLOCK_SIZE + v] + 1);
+                }
+            }
+            float[] basis = new float[n * n];
+            for (int i = 0; i < n; i++) {
+                for (int u = 0; u < n; u++) {
+                    double c = u == 0 ? 1 / Math.sqrt(2) : 1;
+                    basis[i * n + u] = (float) (c / 2 * Math.cos((2 * i + 1) * u * Math.PI / (2 * n)));
+                }
+            }
+            SCALED_BASIS[n] = basis;
+        }
+    }
+
+    private static int[] scaleQuantTable(int[][] table, int quality) {
         double scale = (quality < 50) ? 5000.0 / quality : 200.0 - 2 * quality;
-        int[][] result = new int[BLOCK_SIZE][BLOCK_SIZE];
+        int[] result = new int[BLOCK_SIZE * BLOCK_SIZE];
         for (int i = 0; i < BLOCK_SIZE; i++)
             for (int j = 0; j < BLOCK_SIZE; j++) {
                 int val = (int) Math.round((table[i][j] * scale + 50) / 100);
-                result[i][j] = Math.max(1, Math.min(255, val));
+                result[i * BLOCK_SIZE + j] = Math.max(1, Math.min(255, val));
             }
         return result;
     }
 
+    /** One quantization table plus the forms the fast transforms consume it in. */
+    private static final class Quantizer {
+        final int[] table;
+        final float[] fdctDivisors;
+        final float[] idctMultipliers;
+
+        Quantizer(int[] table) {
+            this.table = table;
+            this.fdctDivisors = DCT.floatDivisors(table);
+            this.idctMultipliers = DCT.floatMultipliers(table);
+        }
+    }
+
+    /**
+     * An image after color conversion and the forward DCT, before quantization. The
+     * unquantized coefficients of every block sit in place of its samples, so encoding
+     * it again at another quality only repeats quantization and entropy coding.
+     */
+    public static final class Coefficients {
+        final int width;
+        final int height;
+        final DctMode dctMode;
+        final Plane y;
+        final Plane cb;
+        final Plane cr;
+
+        Coefficients(int width, int height, DctMode dctMode, Plane y, Plane cb, Plane cr) {
+            this.width = width;
+            this.height = height;
+            this.dctMode = dctMode;
+            this.y = y;
+            this.cb = cb;
+            this.cr = cr;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public int height() {
+            return height;
+        }
+    }
+
+    /** Neither the executor nor the kernels change the output, so they are not part of it. */
+    @Override
+    public String signature() {
+        return "jpeg v" + VERSION + " q" + quality + " " + dctMode;
+    }
+
+    /** Compresses strip by strip if the image is larger than 32 megapixels, otherwise in one piece. */
     @Override
-    public void compress(File input, File output) throws IOException {
-        BufferedImage img = ImageIO.read(input);
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = openReader(in);
+            try {
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > STREAMING_PIXELS) {
+                    encodeStrips(reader, output);
+                } else {
+                    encode(transform(reader), quality, output);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Compresses the image a few 64-row strips at a time, so memory depends on the image
+     * width rather than its area. The output is identical to {@link #compress}.
+     */
+    public void compressStreaming(InputStream input, OutputStream output) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = openReader(in);
+            try {
+                encodeStrips(reader, output);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes the image and runs color conversion and the forward DCT, with this
+     * compressor's DCT mode. The result can be passed to {@link #encode} any number of times.
+     */
+    public Coefficients transform(InputStream input) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = openReader(in);
+            try {
+                return transform(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader openReader(ImageInputStream in) throws IOException {
+        if (in == null) {
+            throw new IIOException("Can't create an ImageInputStream!");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported or corrupted image");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, false, false);
+        return reader;
+    }
+
+    private Coefficients transform(ImageReader reader) throws IOException {
+        Stage read = Stage.start("jpeg", "read");
+        BufferedImage img = reader.read(0);
         int width = img.getWidth();
         int height = img.getHeight();
+        read.end(0, 3L * width * height);
+
+        Plane y = new Plane(width, height);
+        Plane cb420 = new Plane((width + 1) / 2, (height + 1) / 2);
+        Plane cr420 = new Plane((width + 1) / 2, (height + 1) / 2);
+        Stage color = Stage.start("jpeg", "color");
+        toYCbCr420(img, 0, height, y, cb420, cr420);
+        y.padEdges();
+        cb420.padEdges();
+        cr420.padEdges();
+        color.end();
+
+        int strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int s = 0; s < strips; s++) {
+            int lumaRow = s * STRIP_HEIGHT;
+            int chromaRow = lumaRow / 2;
+            tasks.add(() -> transformChannel(y, lumaRow, lumaRow + STRIP_HEIGHT));
+            tasks.add(() -> transformChannel(cb420, chromaRow, chromaRow + STRIP_HEIGHT / 2));
+            tasks.add(() -> transformChannel(cr420, chromaRow, chromaRow + STRIP_HEIGHT / 2));
+        }
+        runAll(tasks);
+        Metrics.count("jpeg.pixelsIn", (long) width * height);
+        return new Coefficients(width, height, dctMode, y, cb420, cr420);
+    }
 
-        double[][] y = new double[height][width];
-        double[][] cb = new double[height][width];
-        double[][] cr = new double[height][width];
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                Color color = new Color(img.getRGB(j, i));
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
+    /** Strips in flight at once: enough to keep the executor busy, within BATCH_PIXELS. */
+    private int batchStrips(int width) {
+        if (executor == null) {
+            return 1;
+        }
+        long stripPixels = (long) Math.max(1, width) * STRIP_HEIGHT;
+        return (int) Math.max(1, Math.min(2 * Runtime.getRuntime().availableProcessors(), BATCH_PIXELS / stripPixels));
+    }
 
-                y[i][j] = 0.299 * r + 0.587 * g + 0.114 * b - 128;
-                cb[i][j] = -0.168736 * r - 0.331264 * g + 0.5 * b;
-                cr[i][j] = 0.5 * r - 0.418688 * g - 0.081312 * b;
+    private void encodeStrips(ImageReader reader, OutputStream output) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        DataOutputStream out = new DataOutputStream(output);
+        writeHeader(out, width, height, quality, dctMode);
+        long[] written = {HEADER_SIZE};
+        int batch = batchStrips(width);
+        Plane[][] strips = new Plane[batch][];
+        ImageBands.read(reader, batch * STRIP_HEIGHT, (band, y, rows) -> {
+            List<Callable<byte[][]>> tasks = new ArrayList<>();
+            for (int row = 0; row < rows; row += STRIP_HEIGHT) {
+                int stripRow = row;
+                Plane[] planes = stripPlanes(strips, row / STRIP_HEIGHT, width, Math.min(STRIP_HEIGHT, rows - row), BLOCK_SIZE);
+                tasks.add(() -> encodeStrip(band, stripRow, planes));
+            }
+            for (byte[][] segments : runAll(tasks)) {
+                written[0] += writeStrip(out, segments[0], segments[1], segments[2]);
             }
+        });
+        out.flush();
+        Metrics.count("jpeg.pixelsIn", (long) width * height);
+        Metrics.count("jpeg.bytesOut", written[0]);
+    }
+
+    /**
+     * Color converts, transforms and codes one strip of a band into {@code planes}, as
+     * {@link #transform} and {@link #encode} would.
+     */
+    private byte[][] encodeStrip(BufferedImage band, int row, Plane[] planes) throws IOException {
+        Stage color = Stage.start("jpeg", "color");
+        toYCbCr420(band, row, planes[0].height, planes[0], planes[1], planes[2]);
+        for (Plane plane : planes) {
+            plane.padEdges();
         }
+        color.end();
 
-        double[][] cb420 = downsample(cb);
-        double[][] cr420 = downsample(cr);
+        byte[][] segments = new byte[3][];
+        for (int c = 0; c < 3; c++) {
+            Quantizer quantizer = c == 0 ? lumaQuantizer : chromaQuantizer;
+            transformChannel(planes[c], 0, planes[c].rows);
+            segments[c] = compressChannel(planes[c], 0, planes[c].rows, quantizer, dctMode);
+        }
+        return segments;
+    }
+
+    /** Quantizes and entropy codes a transformed image at {@code quality}; returns the bytes written. */
+    public long encode(Coefficients image, int quality, OutputStream output) throws IOException {
+        List<byte[]> segments = encodeSegments(image, Math.max(1, Math.min(100, quality)));
+        return write(image, Math.max(1, Math.min(100, quality)), segments, output);
+    }
+
+    /**
+     * Encodes at the highest quality whose output fits in {@code maxBytes}, found by a
+     * binary search over the quality scale, and returns that quality. If even quality 1
+     * does not fit, the quality 1 output is written anyway.
+     */
+    public int encodeToSize(Coefficients image, long maxBytes, OutputStream output) throws IOException {
+        int low = 1;
+        int high = 100;
+        int best = 1;
+        List<byte[]> bestSegments = null;
+        int passes = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            List<byte[]> segments = encodeSegments(image, mid);
+            passes++;
+            if (encodedSize(segments) <= maxBytes) {
+                best = mid;
+                bestSegments = segments;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (bestSegments == null) {
+            bestSegments = encodeSegments(image, 1);
+            passes++;
+        }
+        Metrics.record("jpeg.rateControlPasses", passes);
+        write(image, best, bestSegments, output);
+        return best;
+    }
 
-        ByteArrayOutputStream yStream = new ByteArrayOutputStream();
-        ByteArrayOutputStream cbStream = new ByteArrayOutputStream();
-        ByteArrayOutputStream crStream = new ByteArrayOutputStream();
+    /** Every strip of every channel is an independent segment: its own Huffman table and a DC predictor that restarts at zero. */
+    private List<byte[]> encodeSegments(Coefficients image, int quality) throws IOException {
+        Quantizer luma = lumaQuantizer(quality);
+        Quantizer chroma = chromaQuantizer(quality);
+        int strips = (image.height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int s = 0; s < strips; s++) {
+            int lumaRow = s * STRIP_HEIGHT;
+            int chromaRow = lumaRow / 2;
+            tasks.add(() -> compressChannel(image.y, lumaRow, lumaRow + STRIP_HEIGHT, luma, image.dctMode));
+            tasks.add(() -> compressChannel(image.cb, chromaRow, chromaRow + STRIP_HEIGHT / 2, chroma, image.dctMode));
+            tasks.add(() -> compressChannel(image.cr, chromaRow, chromaRow + STRIP_HEIGHT / 2, chroma, image.dctMode));
+        }
+        return runAll(tasks);
+    }
 
-        compressChannel(y, scaleQuantTable(BASE_Q_Y), yStream);
-        compressChannel(cb420, scaleQuantTable(BASE_Q_C), cbStream);
-        compressChannel(cr420, scaleQuantTable(BASE_Q_C), crStream);
+    private static long encodedSize(List<byte[]> segments) {
+        long size = HEADER_SIZE;
+        for (byte[] segment : segments) {
+            size += 4 + segment.length;
+        }
+        return size;
+    }
 
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(output))) {
-            out.writeInt(width);
-            out.writeInt(height);
-            out.writeInt(yStream.size());
-            out.writeInt(cbStream.size());
-            out.writeInt(crStream.size());
-            yStream.writeTo(out);
-            cbStream.writeTo(out);
-            crStream.writeTo(out);
+    private long write(Coefficients image, int quality, List<byte[]> segments, OutputStream output) throws IOException {
+        Stage write = Stage.start("jpeg", "write");
+        DataOutputStream out = new DataOutputStream(output);
+        writeHeader(out, image.width, image.height, quality, image.dctMode);
+        for (int s = 0; s < segments.size(); s += 3) {
+            writeStrip(out, segments.get(s), segments.get(s + 1), segments.get(s + 2));
         }
+        out.flush();
+        long written = encodedSize(segments);
+        write.end(0, written);
+        Metrics.count("jpeg.bytesOut", written);
+        return written;
+    }
+
+    /**
+     * Header: magic, version, width, height, quality, then the DCT mode (0 float, 1 integer),
+     * so the decoder runs the inverse transform the file was written with whatever its own mode.
+     */
+    private static void writeHeader(DataOutputStream out, int width, int height, int quality,
+                                    DctMode mode) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeByte(quality);
+        out.writeByte(mode == DctMode.INTEGER ? 1 : 0);
+    }
+
+    /** Writes the three segment lengths, then the segments; returns the bytes written. */
+    private static long writeStrip(DataOutputStream out, byte[] y, byte[] cb, byte[] cr) throws IOException {
+        out.writeInt(y.length);
+        out.writeInt(cb.length);
+        out.writeInt(cr.length);
+        out.write(y);
+        out.write(cb);
+        out.write(cr);
+        return 12L + y.length + cb.length + cr.length;
+    }
+
+    private Quantizer lumaQuantizer(int quality) {
+        return quality == this.quality ? lumaQuantizer : new Quantizer(scaleQuantTable(BASE_Q_Y, quality));
+    }
+
+    private Quantizer chromaQuantizer(int quality) {
+        return quality == this.quality ? chromaQuantizer : new Quantizer(scaleQuantTable(BASE_Q_C, quality));
+    }
+
+    /** Writes the image as PNG; the File overloads pick the format from the output name. */
+    @Override
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        decompress(input, 1, new PngSink(output));
     }
 
     @Override
     public void decompress(File input, File output) throws IOException {
-        try (DataInputStream in = new DataInputStream(new FileInputStream(input))) {
-            int width = in.readInt();
-            int height = in.readInt();
-            int ySize = in.readInt();
-            int cbSize = in.readInt();
-            int crSize = in.readInt();
-
-            byte[] yBytes = in.readNBytes(ySize);
-            byte[] cbBytes = in.readNBytes(cbSize);
-            byte[] crBytes = in.readNBytes(crSize);
-
-            double[][] y = decompressChannel(new ByteArrayInputStream(yBytes), scaleQuantTable(BASE_Q_Y), height, width);
-            double[][] cb420 = decompressChannel(new ByteArrayInputStream(cbBytes), scaleQuantTable(BASE_Q_C), height / 2, width / 2);
-            double[][] cr420 = decompressChannel(new ByteArrayInputStream(crBytes), scaleQuantTable(BASE_Q_C), height / 2, width / 2);
-
-            double[][] cb = upsample420(cb420, width, height);
-            double[][] cr = upsample420(cr420, width, height);
-
-            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    double Y = y[i][j] + 128;
-                    double Cb = cb[i][j];
-                    double Cr = cr[i][j];
-                    int r = clamp((int) (Y + 1.402 * Cr));
-                    int g = clamp((int) (Y - 0.344136 * Cb - 0.714136 * Cr));
-                    int b = clamp((int) (Y + 1.772 * Cb));
-                    image.setRGB(j, i, new Color(r, g, b).getRGB());
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            decompress(in, 1, ImageSink.forFile(output, out));
+        }
+    }
+
+    @Override
+    public void decompress(File input, File output, ProgressListener listener) throws IOException {
+        ProgressTracker tracker = new ProgressTracker(listener);
+        try (InputStream in = new BufferedInputStream(tracker.count(new FileInputStream(input)));
+             OutputStream out = new BufferedOutputStream(tracker.count(new FileOutputStream(output)))) {
+            decompress(in, 1, ImageSink.forFile(output, out));
+        }
+        tracker.finish();
+    }
+
+    /** Decodes the whole image into memory. */
+    public PixelBuffer decompressPixels(InputStream input) throws IOException {
+        PixelBuffer pixels = new PixelBuffer();
+        decompress(input, 1, pixels);
+        return pixels;
+    }
+
+    /**
+     * Decodes the image at 1/{@code divisor} of its size, rounded up: 1 is the full
+     * image, 8 rebuilds every block from its DC coefficient alone and 2 or 4 run a
+     * reduced IDCT over the low-frequency corner. Coefficients the scale cannot show
+     * are never dequantized or transformed, which makes thumbnails far cheaper.
+     */
+    public BufferedImage decompressScaled(InputStream input, int divisor) throws IOException {
+        PixelBuffer pixels = new PixelBuffer();
+        decompress(input, divisor, pixels);
+        return pixels.image();
+    }
+
+    /**
+     * Decodes the image at 1/{@code divisor} of its size, as {@link #decompressScaled},
+     * and passes it to {@code sink} a few 64-row strips at a time. Only those strips are
+     * held in memory, so the cost depends on the image width rather than its area.
+     */
+    public void decompress(InputStream input, int divisor, ImageSink sink) throws IOException {
+        if (divisor != 1 && divisor != 2 && divisor != 4 && divisor != 8) {
+            throw new IllegalArgumentException("Scale divisor must be 1, 2, 4 or 8: " + divisor);
+        }
+        long bytesIn = HEADER_SIZE;
+        DataInputStream in = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a JPEG-compressed file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported JPEG format version: " + version);
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int fileQuality = in.readUnsignedByte();
+        int modeByte = in.readUnsignedByte();
+        if (width < 0 || height < 0 || modeByte > 1) {
+            throw new IOException("Corrupted JPEG header");
+        }
+        DctMode fileMode = modeByte == 1 ? DctMode.INTEGER : DctMode.FLOAT;
+        Quantizer luma = lumaQuantizer(fileQuality);
+        Quantizer chroma = chromaQuantizer(fileQuality);
+
+        int n = BLOCK_SIZE / divisor;
+        // Untrusted sizes: a strip's samples, padded to whole blocks, must fit one array
+        long stripSamples = ((long) width + BLOCK_SIZE - 1) / BLOCK_SIZE * n * (STRIP_HEIGHT * n / BLOCK_SIZE);
+        if (stripSamples > Integer.MAX_VALUE - 8) {
+            throw new IOException("Corrupted JPEG header");
+        }
+        int outWidth = (int) (((long) width * n + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        int outHeight = (int) (((long) height * n + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        int[] pixels = new int[outWidth * (STRIP_HEIGHT * n / BLOCK_SIZE)];
+        sink.start(outWidth, outHeight);
+
+        int strips = (int) (((long) height + STRIP_HEIGHT - 1) / STRIP_HEIGHT);
+        int batch = batchStrips(width);
+        Plane[][] reused = new Plane[batch][];
+        int outRow = 0;
+        for (int first = 0; first < strips; first += batch) {
+            Stage read = Stage.start("jpeg", "read");
+            int count = Math.min(batch, strips - first);
+            Plane[][] planes = new Plane[count][];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int rows = Math.min(STRIP_HEIGHT, height - (first + i) * STRIP_HEIGHT);
+                planes[i] = stripPlanes(reused, i, width, rows, n);
+                Plane y = planes[i][0];
+                Plane cb420 = planes[i][1];
+                Plane cr420 = planes[i][2];
+                int ySize = in.readInt();
+                int cbSize = in.readInt();
+                int crSize = in.readInt();
+                int chromaWidth = (width + 1) / 2;
+                int chromaRows = (rows + 1) / 2;
+                byte[] yBytes = readSegment(in, ySize, width, rows);
+                byte[] cbBytes = readSegment(in, cbSize, chromaWidth, chromaRows);
+                byte[] crBytes = readSegment(in, crSize, chromaWidth, chromaRows);
+                bytesIn += 12L + ySize + cbSize + crSize;
+                if (n == BLOCK_SIZE) {
+                    tasks.add(() -> decompressChannel(yBytes, luma, fileMode, y, 0, STRIP_HEIGHT));
+                    tasks.add(() -> decompressChannel(cbBytes, chroma, fileMode, cb420, 0, STRIP_HEIGHT / 2));
+                    tasks.add(() -> decompressChannel(crBytes, chroma, fileMode, cr420, 0, STRIP_HEIGHT / 2));
+                } else {
+                    tasks.add(() -> decompressScaledChannel(yBytes, luma, y, 0, STRIP_HEIGHT, n));
+                    tasks.add(() -> decompressScaledChannel(cbBytes, chroma, cb420, 0, STRIP_HEIGHT / 2, n));
+                    tasks.add(() -> decompressScaledChannel(crBytes, chroma, cr420, 0, STRIP_HEIGHT / 2, n));
                 }
             }
+            read.end(bytesIn, 0);
+            runAll(tasks);
+
+            for (Plane[] strip : planes) {
+                Stage color = Stage.start("jpeg", "color");
+                toRGB(strip[0], strip[1], strip[2], pixels);
+                color.end();
+                Stage write = Stage.start("jpeg", "write");
+                sink.rows(pixels, outRow, strip[0].height);
+                write.end(0, 3L * strip[0].width * strip[0].height);
+                outRow += strip[0].height;
+            }
+        }
+        Stage write = Stage.start("jpeg", "write");
+        sink.finish();
+        write.end();
+        Metrics.count("jpeg.bytesIn", bytesIn);
+        Metrics.count("jpeg.pixelsOut", (long) outWidth * outHeight);
+    }
+
+    /**
+     * Reads one channel segment of a strip, checking its length against the most that
+     * the {@code width x rows} samples could have been coded to.
+     */
+    private static byte[] readSegment(DataInputStream in, int size, int width, int rows) throws IOException {
+        long blocks = (long) ((width + BLOCK_SIZE - 1) / BLOCK_SIZE) * ((rows + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (size < 0 || size > HuffmanCodec.maxRLESize(blocks)) {
+            throw new IOException("Corrupted JPC segment");
+        }
+        byte[] segment = in.readNBytes(size);
+        if (segment.length != size) {
+            throw new IOException("Corrupted JPC segment");
+        }
+        return segment;
+    }
 
-            ImageIO.write(image, "jpg", output);
+    /**
+     * Y, Cb and Cr planes for a strip of {@code rows} luma rows. Full-height strips reuse
+     * the planes kept in {@code slots[slot]}, which every stage overwrites completely;
+     * the shorter last strip gets planes of its own.
+     */
+    private static Plane[] stripPlanes(Plane[][] slots, int slot, int width, int rows, int blockSize) {
+        if (rows == STRIP_HEIGHT && slots[slot] != null) {
+            return slots[slot];
         }
+        Plane[] planes = {
+                stripPlane(width, rows, blockSize),
+                stripPlane((width + 1) / 2, (rows + 1) / 2, blockSize),
+                stripPlane((width + 1) / 2, (rows + 1) / 2, blockSize)};
+        if (rows == STRIP_HEIGHT) {
+            slots[slot] = planes;
+        }
+        return planes;
     }
 
-    private void compressChannel(double[][] channel, int[][] qTable, OutputStream out) throws IOException {
-        List<Short> rleData = new ArrayList<>();
-        int prevDC = 0;
+    private static Plane stripPlane(int width, int height, int blockSize) {
+        return blockSize == BLOCK_SIZE ? new Plane(width, height) : Plane.scaled(width, height, blockSize);
+    }
 
-        for (int y = 0; y < channel.length; y += BLOCK_SIZE) {
-            for (int x = 0; x < channel[0].length; x += BLOCK_SIZE) {
-                double[][] block = new double[BLOCK_SIZE][BLOCK_SIZE];
-                for (int i = 0; i < BLOCK_SIZE; i++) {
-                    for (int j = 0; j < BLOCK_SIZE; j++) {
-                        int yy = y + i, xx = x + j;
-                        block[i][j] = (yy < channel.length && xx < channel[0].length) ? channel[yy][xx] : 0;
-                    }
+    /** Runs the tasks on the executor, or inline without one, and returns results in task order. */
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (executor == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
                 }
-                int[][] quant = quantize(applyDCT(block), qTable);
-                int[] zigzag = zigzagScan(quant);
-                int dc = zigzag[0];
-                rleData.add((short) (dc - prevDC));
-                prevDC = dc;
-
-                int zeroCount = 0;
-                for (int i = 1; i < zigzag.length; i++) {
-                    if (zigzag[i] == 0) {
-                        zeroCount++;
-                    } else {
-                        rleData.add((short) zeroCount);
-                        rleData.add((short) zigzag[i]);
-                        zeroCount = 0;
-                    }
+            }
+            return results;
+        }
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
                 }
-                rleData.add((short) 0xFFFF); // Block end
+            }, executor));
+        }
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
             }
+        } catch (CompletionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
         }
+        return results;
+    }
 
-        new HuffmanCodec().compressRLE(rleData, out);
+    /** Forward DCT of every block in the rows, written back over the samples. */
+    private Void transformChannel(Plane channel, int rowStart, int rowEnd) {
+        int rowsEnd = Math.min(rowEnd, channel.rows);
+        float[] block = new float[BLOCK_SIZE * BLOCK_SIZE];
+        float[] scratch = new float[BLOCK_SIZE * BLOCK_SIZE];
+        int[] samples = new int[BLOCK_SIZE * BLOCK_SIZE];
+
+        Stage transform = Stage.start("jpeg", "transform");
+        for (int y = rowStart; y < rowsEnd; y += BLOCK_SIZE) {
+            for (int x = 0; x < channel.stride; x += BLOCK_SIZE) {
+                channel.readBlock(x, y, block);
+                forward(block, samples, scratch);
+                channel.writeBlock(x, y, block);
+            }
+        }
+        transform.end();
+        return null;
     }
 
-    private double[][] decompressChannel(InputStream in, int[][] qTable, int height, int width) throws IOException {
-        List<Short> rle = new HuffmanCodec().decompressRLE(in);
-        double[][] channel = new double[height][width];
-        int xBlocks = (int) Math.ceil(width / 8.0);
-        int yBlocks = (int) Math.ceil(height / 8.0);
+    private byte[] compressChannel(Plane channel, int rowStart, int rowEnd, Quantizer quantizer,
+                                   DctMode mode) throws IOException {
+        int rowsEnd = Math.min(rowEnd, channel.rows);
+        SymbolBuffer coefficients = COEFFICIENT_BUFFERS.acquire();
+        try {
+            return compressChannel(channel, rowStart, rowsEnd, quantizer, mode, coefficients);
+        } finally {
+            COEFFICIENT_BUFFERS.release(coefficients);
+        }
+    }
 
-        int index = 0;
-        int prevDC = 0;
+    private byte[] compressChannel(Plane channel, int rowStart, int rowsEnd, Quantizer quantizer,
+                                   DctMode mode, SymbolBuffer coefficients) throws IOException {
+        coefficients.clear();
+        coefficients.reserve(Math.max(0, rowsEnd - rowStart) * channel.stride);
+        float[] block = new float[BLOCK_SIZE * BLOCK_SIZE];
+        int[] quant = new int[BLOCK_SIZE * BLOCK_SIZE];
+        int[] zigzag = new int[BLOCK_SIZE * BLOCK_SIZE];
+
+        Stage quantize = Stage.start("jpeg", "quantize");
+        for (int y = rowStart; y < rowsEnd; y += BLOCK_SIZE) {
+            for (int x = 0; x < channel.stride; x += BLOCK_SIZE) {
+                channel.readBlock(x, y, block);
+                quantize(block, quantizer, mode, quant);
+                zigzagScan(quant, zigzag);
+                for (int coef : zigzag) {
+                    coefficients.add(coef);
+                }
+            }
+        }
+        quantize.end();
 
-        for (int by = 0; by < yBlocks; by++) {
+        Stage entropy = Stage.start("jpeg", "entropy");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HuffmanCodec().compressRLE(coefficients, out);
+        entropy.end(2L * coefficients.size(), out.size());
+        return out.toByteArray();
+    }
+
+    private Void decompressChannel(byte[] segment, Quantizer quantizer, DctMode mode, Plane channel,
+                                   int rowStart, int rowEnd) throws IOException {
+        int rowsEnd = Math.min(rowEnd, channel.rows);
+        int xBlocks = channel.stride / BLOCK_SIZE;
+        int yBlocks = Math.max(0, rowsEnd - rowStart) / BLOCK_SIZE;
+        SymbolBuffer decoded = COEFFICIENT_BUFFERS.acquire();
+        try {
+            decompressChannel(segment, quantizer, mode, channel, rowStart, rowsEnd, xBlocks, yBlocks, decoded);
+        } finally {
+            COEFFICIENT_BUFFERS.release(decoded);
+        }
+        return null;
+    }
+
+    private void decompressChannel(byte[] segment, Quantizer quantizer, DctMode mode, Plane channel, int rowStart,
+                                   int rowsEnd, int xBlocks, int yBlocks, SymbolBuffer decoded) throws IOException {
+        Stage entropy = Stage.start("jpeg", "entropy");
+        new HuffmanCodec().decompressRLE(new ByteArrayInputStream(segment), xBlocks * yBlocks, DCT.COEFFICIENTS, decoded);
+        short[] coefficients = decoded.array();
+        entropy.end(segment.length, 2L * decoded.size());
+
+        int index = 0;
+        int[] zigzag = new int[BLOCK_SIZE * BLOCK_SIZE];
+        int[] dequantInput = new int[BLOCK_SIZE * BLOCK_SIZE];
+        int[] samples = new int[BLOCK_SIZE * BLOCK_SIZE];
+        float[] block = new float[BLOCK_SIZE * BLOCK_SIZE];
+        float[] scratch = new float[BLOCK_SIZE * BLOCK_SIZE];
+
+        Stage transform = Stage.start("jpeg", "transform");
+        for (int by = rowStart; by < rowsEnd; by += BLOCK_SIZE) {
             for (int bx = 0; bx < xBlocks; bx++) {
-                if (index >= rle.size()) break;
-                int[] zigzag = new int[64];
-                int dcDiff = rle.get(index++);
-                zigzag[0] = prevDC + dcDiff;
-                prevDC = zigzag[0];
-
-                int zi = 1;
-                while (index < rle.size()) {
-                    short val = rle.get(index++);
-                    if (val == (short) 0xFFFF) break; // Block end
-                    short coef = rle.get(index++);
-                    for (int z = 0; z < val && zi < 64; z++) zigzag[zi++] = 0;
-                    if (zi < 64) zigzag[zi++] = coef;
+                for (int i = 0; i < zigzag.length; i++) {
+                    zigzag[i] = coefficients[index++];
                 }
+                inverseZigzag(zigzag, dequantInput);
+                dequantizeInverse(dequantInput, quantizer, mode, samples, block, scratch);
+                channel.writeBlock(bx * BLOCK_SIZE, by, block);
+            }
+        }
+        transform.end();
+    }
 
-                double[][] block = applyIDCT(dequantize(inverseZigzag(zigzag), qTable));
-                for (int i = 0; i < BLOCK_SIZE; i++) {
-                    for (int j = 0; j < BLOCK_SIZE; j++) {
-                        int yy = by * BLOCK_SIZE + i;
-                        int xx = bx * BLOCK_SIZE + j;
-                        if (yy < height && xx < width)
-                            channel[yy][xx] = block[i][j];
+    /**
+     * Rebuilds every block of the rows as {@code n x n} samples from its top-left
+     * {@code n x n} coefficients: the DC average alone for n = 1, otherwise an n-point
+     * IDCT with the 8-point normalization, which approximates averaging 8/n pixels.
+     */
+    private Void decompressScaledChannel(byte[] segment, Quantizer quantizer, Plane channel,
+                                         int rowStart, int rowEnd, int n) throws IOException {
+        int xBlocks = channel.stride / n;
+        int blockRowStart = rowStart / BLOCK_SIZE;
+        int yBlocks = Math.max(0, Math.min(rowEnd / BLOCK_SIZE, channel.rows / n) - blockRowStart);
+        SymbolBuffer decoded = COEFFICIENT_BUFFERS.acquire();
+        try {
+            decompressScaledChannel(segment, quantizer, channel, n, xBlocks, blockRowStart, yBlocks, decoded);
+        } finally {
+            COEFFICIENT_BUFFERS.release(decoded);
+        }
+        return null;
+    }
+
+    private void decompressScaledChannel(byte[] segment, Quantizer quantizer, Plane channel, int n,
+                                         int xBlocks, int blockRowStart, int yBlocks, SymbolBuffer decoded)
+            throws IOException {
+        int keep = SCALED_KEEP[n];
+        Stage entropy = Stage.start("jpeg", "entropy");
+        new HuffmanCodec().decompressRLE(new ByteArrayInputStream(segment), xBlocks * yBlocks, keep, decoded);
+        short[] coefficients = decoded.array();
+        entropy.end(segment.length, 2L * decoded.size());
+
+        int[] table = quantizer.table;
+        float[] basis = SCALED_BASIS[n];
+        float[] dequantized = new float[n * n];
+        float[] rows = new float[n * n];
+        float dcScale = table[0] / 8f;
+
+        Stage transform = Stage.start("jpeg", "transform");
+        int index = 0;
+        for (int by = 0; by < yBlocks; by++) {
+            int rowBase = (blockRowStart + by) * n * channel.stride;
+            for (int bx = 0; bx < xBlocks; bx++, index += keep) {
+                int out = rowBase + bx * n;
+                if (n == 1) {
+                    channel.data[out] = coefficients[index] * dcScale;
+                    continue;
+                }
+                for (int u = 0; u < n; u++) {
+                    for (int v = 0; v < n; v++) {
+                        int natural = u * BLOCK_SIZE + v;
+                        dequantized[u * n + v] = coefficients[index + ZIGZAG_POSITION[natural]] * table[natural];
+                    }
+                }
+                // Along each row, then down each column
+                for (int u = 0; u < n; u++) {
+                    for (int j = 0; j < n; j++) {
+                        float sum = 0;
+                        for (int v = 0; v < n; v++) {
+                            sum += dequantized[u * n + v] * basis[j * n + v];
+                        }
+                        rows[u * n + j] = sum;
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        float sum = 0;
+                        for (int u = 0; u < n; u++) {
+                            sum += basis[i * n + u] * rows[u * n + j];
+                        }
+                        channel.data[out + i * channel.stride + j] = sum;
                     }
                 }
             }
         }
-        return channel;
+        transform.end();
     }
 
-    private double[][] downsample(double[][] input) {
-        int height = input.length / 2;
-        int width = input[0].length / 2;
-        double[][] output = new double[height][width];
-        for (int i = 0; i < height; i++)
-            for (int j = 0; j < width; j++)
-                output[i][j] = (input[2 * i][2 * j] + input[2 * i + 1][2 * j] +
-                        input[2 * i][2 * j + 1] + input[2 * i + 1][2 * j + 1]) / 4.0;
-        return output;
-    }
+    /**
+     * Converts {@code height} rows of the image from {@code rowStart} to level-shifted Y and
+     * 4:2:0 Cb/Cr in one pass over pairs of rows: every 2x2 quad yields four luma samples
+     * and one averaged chroma sample.
+     */
+    private void toYCbCr420(BufferedImage img, int rowStart, int height, Plane y, Plane cb, Plane cr) {
+        int width = img.getWidth();
+        int[] rgb = new int[2 * width];
 
-    private double[][] upsample420(double[][] input, int targetWidth, int targetHeight) {
-        double[][] result = new double[targetHeight][targetWidth];
-        for (int i = 0; i < targetHeight; i++) {
-            for (int j = 0; j < targetWidth; j++) {
-                result[i][j] = input[i / 2][j / 2];
+        for (int row = 0; row < height; row += 2) {
+            readRows(img, rowStart + row, Math.min(2, height - row), rgb);
+            if (row + 1 == height) {
+                System.arraycopy(rgb, 0, rgb, width, width);
+            }
+            int lumaRow = row * y.stride;
+            int chromaRow = (row / 2) * cb.stride;
+            kernels.luma(rgb, 0, y.data, lumaRow, width);
+            kernels.luma(rgb, width, y.data, lumaRow + y.stride, width);
+
+            for (int col = 0; col < width; col += 2) {
+                int next = Math.min(col + 1, width - 1);
+                int p00 = rgb[col], p01 = rgb[next], p10 = rgb[width + col], p11 = rgb[width + next];
+
+                float r = (((p00 >> 16) & 0xFF) + ((p01 >> 16) & 0xFF) + ((p10 >> 16) & 0xFF) + ((p11 >> 16) & 0xFF)) / 4f;
+                float g = (((p00 >> 8) & 0xFF) + ((p01 >> 8) & 0xFF) + ((p10 >> 8) & 0xFF) + ((p11 >> 8) & 0xFF)) / 4f;
+                float b = ((p00 & 0xFF) + (p01 & 0xFF) + (p10 & 0xFF) + (p11 & 0xFF)) / 4f;
+                cb.data[chromaRow + col / 2] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                cr.data[chromaRow + col / 2] = 0.5f * r - 0.418688f * g - 0.081312f * b;
             }
         }
-        return result;
     }
 
-    private double[][] applyDCT(double[][] block) {
-        double[][] result = new double[BLOCK_SIZE][BLOCK_SIZE];
-        for (int u = 0; u < BLOCK_SIZE; u++) {
-            for (int v = 0; v < BLOCK_SIZE; v++) {
-                double sum = 0.0;
-                for (int x = 0; x < BLOCK_SIZE; x++) {
-                    for (int y = 0; y < BLOCK_SIZE; y++) {
-                        sum += block[x][y] *
-                                Math.cos((2 * x + 1) * u * Math.PI / 16) *
-                                Math.cos((2 * y + 1) * v * Math.PI / 16);
-                    }
+    /** Fetches whole rows as packed RGB, straight from the data buffer for the common layouts. */
+    private static void readRows(BufferedImage img, int row, int count, int[] rgb) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        int type = img.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && model instanceof SinglePixelPackedSampleModel) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) model;
+            for (int i = 0; i < count; i++) {
+                int offset = buffer.getOffset() + packed.getOffset(-tx, row + i - ty);
+                System.arraycopy(data, offset, rgb, i * width, width);
+            }
+        } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR || isInterleavedRGB(img))
+                && model instanceof ComponentSampleModel) {
+            byte[] data = ((DataBufferByte) buffer).getData();
+            ComponentSampleModel component = (ComponentSampleModel) model;
+            int pixelStride = component.getPixelStride();
+            int[] bandOffsets = component.getBandOffsets();
+            for (int i = 0; i < count; i++) {
+                int offset = buffer.getOffset() + component.getOffset(-tx, row + i - ty, 0) - bandOffsets[0];
+                int rOff = offset + bandOffsets[0];
+                int gOff = offset + bandOffsets[1];
+                int bOff = offset + bandOffsets[2];
+                for (int j = 0, p = 0; j < width; j++, p += pixelStride) {
+                    rgb[i * width + j] = (data[rOff + p] & 0xFF) << 16 | (data[gOff + p] & 0xFF) << 8 | (data[bOff + p] & 0xFF);
                 }
-                double cu = (u == 0) ? 1 / Math.sqrt(2) : 1;
-                double cv = (v == 0) ? 1 / Math.sqrt(2) : 1;
-                result[u][v] = 0.25 * cu * cv * sum;
             }
+        } else {
+            img.getRGB(0, row, width, count, rgb, 0, width);
         }
-        return result;
     }
 
-    private double[][] applyIDCT(double[][] block) {
-        double[][] result = new double[BLOCK_SIZE][BLOCK_SIZE];
-        for (int x = 0; x < BLOCK_SIZE; x++) {
-            for (int y = 0; y < BLOCK_SIZE; y++) {
-                double sum = 0.0;
-                for (int u = 0; u < BLOCK_SIZE; u++) {
-                    for (int v = 0; v < BLOCK_SIZE; v++) {
-                        double cu = (u == 0) ? 1 / Math.sqrt(2) : 1;
-                        double cv = (v == 0) ? 1 / Math.sqrt(2) : 1;
-                        sum += cu * cv * block[u][v] *
-                                Math.cos((2 * x + 1) * u * Math.PI / 16) *
-                                Math.cos((2 * y + 1) * v * Math.PI / 16);
-                    }
+    /** 8-bit sRGB in one byte array, in any band order: what PNG and JPEG readers produce natively. */
+    private static boolean isInterleavedRGB(BufferedImage img) {
+        ColorModel colors = img.getColorModel();
+        return colors instanceof ComponentColorModel
+                && colors.getColorSpace().isCS_sRGB()
+                && colors.getNumComponents() >= 3
+                && colors.getTransferType() == DataBuffer.TYPE_BYTE
+                && img.getRaster().getDataBuffer() instanceof DataBufferByte
+                && img.getRaster().getSampleModel().getNumDataElements() == colors.getNumComponents();
+    }
+
+    /** Upsamples each chroma row once, then converts the two luma rows it covers to packed RGB. */
+    private void toRGB(Plane y, Plane cb, Plane cr, int[] pixels) {
+        int width = y.width;
+        float[] cbRow = new float[width];
+        float[] crRow = new float[width];
+        for (int row = 0; row < y.height; row++) {
+            if ((row & 1) == 0) {
+                int chromaRow = (row / 2) * cb.stride;
+                for (int col = 0; col < width; col++) {
+                    cbRow[col] = cb.data[chromaRow + col / 2];
+                    crRow[col] = cr.data[chromaRow + col / 2];
                 }
-                result[x][y] = 0.25 * sum;
             }
+            kernels.toRGB(y.data, row * y.stride, cbRow, crRow, 0, pixels, row * width, width);
         }
-        return result;
     }
 
-    private int[][] quantize(double[][] block, int[][] table) {
-        int[][] result = new int[BLOCK_SIZE][BLOCK_SIZE];
-        for (int i = 0; i < BLOCK_SIZE; i++)
-            for (int j = 0; j < BLOCK_SIZE; j++)
-                result[i][j] = (int) Math.round(block[i][j] / table[i][j]);
-        return result;
+    /**
+     * In-place forward DCT of level-shifted samples, natural order. The integer transform's
+     * outputs are whole numbers well below 2^24, so they survive the round trip through float.
+     */
+    private void forward(float[] block, int[] samples, float[] scratch) {
+        if (dctMode == DctMode.INTEGER) {
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = Math.round(block[i]);
+            }
+            DCT.forwardInt(samples);
+            for (int i = 0; i < samples.length; i++) {
+                block[i] = samples[i];
+            }
+        } else {
+            kernels.forwardDct(block, scratch);
+        }
     }
 
-    private double[][] dequantize(int[][] block, int[][] table) {
-        double[][] result = new double[BLOCK_SIZE][BLOCK_SIZE];
-        for (int i = 0; i < BLOCK_SIZE; i++)
-            for (int j = 0; j < BLOCK_SIZE; j++)
-                result[i][j] = block[i][j] * table[i][j];
-        return result;
+    /** Quantizes one block of {@link #forward} output. */
+    private void quantize(float[] coefficients, Quantizer quantizer, DctMode mode, int[] out) {
+        if (mode == DctMode.INTEGER) {
+            int[] table = quantizer.table;
+            for (int i = 0; i < out.length; i++) {
+                int divisor = table[i] << 3;
+                int c = (int) coefficients[i];
+                out[i] = c >= 0 ? (c + (divisor >> 1)) / divisor : -((-c + (divisor >> 1)) / divisor);
+            }
+        } else {
+            kernels.quantize(coefficients, quantizer.fdctDivisors, out);
+        }
     }
 
-    private int[] zigzagScan(int[][] block) {
-        int[] result = new int[BLOCK_SIZE * BLOCK_SIZE];
-        int index = 0;
-        for (int i = 0; i < 2 * BLOCK_SIZE - 1; i++) {
-            int x = (i < BLOCK_SIZE) ? 0 : i - BLOCK_SIZE + 1;
-            int y = (i < BLOCK_SIZE) ? i : BLOCK_SIZE - 1;
-            while (x < BLOCK_SIZE && y >= 0) {
-                result[index++] = block[x][y];
-                x++;
-                y--;
+    /** Dequantization followed by the inverse DCT, natural order. */
+    private void dequantizeInverse(int[] coefficients, Quantizer quantizer, DctMode mode, int[] samples,
+                                   float[] out, float[] scratch) {
+        if (mode == DctMode.INTEGER) {
+            DCT.inverseInt(coefficients, quantizer.table, samples);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = samples[i];
             }
+        } else {
+            kernels.inverseDct(coefficients, quantizer.idctMultipliers, out, scratch);
         }
-        return result;
     }
 
-    private int[][] inverseZigzag(int[] arr) {
-        int[][] block = new int[BLOCK_SIZE][BLOCK_SIZE];
-        int index = 0;
-        for (int i = 0; i < 2 * BLOCK_SIZE - 1; i++) {
-            int x = (i < BLOCK_SIZE) ? 0 : i - BLOCK_SIZE + 1;
-            int y = (i < BLOCK_SIZE) ? i : BLOCK_SIZE - 1;
-            while (x < BLOCK_SIZE && y >= 0) {
-                block[x][y] = arr[index++];
-                x++;
-                y--;
-            }
+    static void zigzagScan(int[] block, int[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = block[ZIGZAG[i]];
         }
-        return block;
     }
 
-    private int clamp(int val) {
-        return Math.max(0, Math.min(255, val));
+    static void inverseZigzag(int[] arr, int[] out) {
+        for (int i = 0; i < arr.length; i++) {
+            out[ZIGZAG[i]] = arr[i];
+        }
     }
 }
 
@@ -0,0 +1,106 @@
+package compression;
+
+/**
+ * The data-parallel inner loops of the JPEG pipeline: color conversion, the float DCT
+ * and quantization. This class is the scalar implementation; {@link VectorKernels}
+ * overrides it with Vector API code when {@code jdk.incubator.vector} is available.
+ * Both produce bit-identical results, so the file format does not depend on which one ran.
+ * <p>
+ * The vector kernels are used when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector} and the CPU has 256-bit float vectors;
+ * {@code -Dcompression.simd=false} forces the scalar code.
+ */
+class Kernels {
+    private static final Kernels SCALAR = new Kernels();
+    private static final Kernels DEFAULT = load();
+
+    Kernels() {
+    }
+
+    /** The kernels the codecs use: vector if enabled and supported, otherwise scalar. */
+    static Kernels get() {
+        return DEFAULT;
+    }
+
+    static Kernels scalar() {
+        return SCALAR;
+    }
+
+    /** The Vector API kernels, or {@code null} if the module is missing or the CPU too narrow. */
+    static Kernels vector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return VectorKernels.create();
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Kernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("compression.simd", "true"))) {
+            return SCALAR;
+        }
+        Kernels vector = vector();
+        return vector != null ? vector : SCALAR;
+    }
+
+    String name() {
+        return "scalar";
+    }
+
+    /** Level-shifted luma of {@code count} packed RGB pixels. */
+    void luma(int[] rgb, int rgbOffset, float[] y, int yOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int p = rgb[rgbOffset + i];
+            y[yOffset + i] = 0.299f * ((p >> 16) & 0xFF) + 0.587f * ((p >> 8) & 0xFF) + 0.114f * (p & 0xFF) - 128;
+        }
+    }
+
+    /**
+     * Converts one row of level-shifted luma plus chroma already upsampled to full
+     * width to packed RGB.
+     */
+    void toRGB(float[] y, int yOffset, float[] cb, float[] cr, int chromaOffset,
+               int[] pixels, int pixelOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            float Y = y[yOffset + i] + 128;
+            float Cb = cb[chromaOffset + i];
+            float Cr = cr[chromaOffset + i];
+            int r = clamp((int) (Y + 1.402f * Cr));
+            int g = clamp((int) (Y - 0.344136f * Cb - 0.714136f * Cr));
+            int b = clamp((int) (Y + 1.772f * Cb));
+            pixels[pixelOffset + i] = r << 16 | g << 8 | b;
+        }
+    }
+
+    /**
+     * In-place float forward DCT, as {@link DCT#forwardFloat}.
+     *
+     * @param scratch 64 floats the implementation may overwrite
+     */
+    void forwardDct(float[] block, float[] scratch) {
+        DCT.forwardFloat(block);
+    }
+
+    /** Rounds {@code coefficients * divisors} to the nearest integer, half up like {@link Math#round(float)}. */
+    void quantize(float[] coefficients, float[] divisors, int[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = Math.round(coefficients[i] * divisors[i]);
+        }
+    }
+
+    /**
+     * Dequantization and float inverse DCT, as {@link DCT#inverseFloat}.
+     *
+     * @param scratch 64 floats the implementation may overwrite
+     */
+    void inverseDct(int[] coefficients, float[] multipliers, float[] out, float[] scratch) {
+        DCT.inverseFloat(coefficients, multipliers, out);
+    }
+
+    static int clamp(int val) {
+        return Math.max(0, Math.min(255, val));
+    }
+}
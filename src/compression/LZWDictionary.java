@@ -0,0 +1,83 @@
+package compression;
+
+import java.util.Arrays;
+
+/**
+ * LZW phrase table keyed on (prefix code, next symbol). Entries live in two primitive
+ * arrays with open addressing, so a lookup never builds a String or boxes a code.
+ */
+final class LZWDictionary {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] codes;
+    private int mask;
+    private int shift;
+    private int size;
+
+    LZWDictionary(int expectedEntries) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedEntries * 2 - 1)) << 1;
+        keys = new long[capacity];
+        codes = new int[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /** Code of the phrase {@code prefix + symbol}, or -1 if it is not in the table. */
+    int get(int prefix, int symbol) {
+        long key = key(prefix, symbol);
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) return codes[slot];
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    void put(int prefix, int symbol, int code) {
+        if (2 * (size + 1) > keys.length) {
+            grow();
+        }
+        long key = key(prefix, symbol);
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        codes[slot] = code;
+        size++;
+    }
+
+    void clear() {
+        if (size == 0) return;
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCodes = codes;
+        keys = new long[oldKeys.length * 2];
+        codes = new int[oldCodes.length * 2];
+        mask = keys.length - 1;
+        shift--;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            codes[slot] = oldCodes[i];
+        }
+    }
+
+    private static long key(int prefix, int symbol) {
+        return ((long) prefix << 16) | symbol;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -3,103 +3,341 @@ package compression;
 import java.io.*;
 import java.util.*;
 
-public class LZWEncoder implements Compressor {
+/**
+ * Variable-width LZW over raw bytes. Instances hold only the code width limit; phrase
+ * tables are pooled, so one instance can serve every thread without rebuilding them.
+ */
+public class LZWEncoder implements Compressor, BlockCodec {
 
+    private static final byte[] MAGIC = {'L', 'Z', 'W'};
+    private static final int VERSION = 2;
+
+    private static final int CLEAR_CODE = 256;
+    private static final int EOF_CODE = 257;
+    private static final int FIRST_CODE = 258;
+    private static final int MIN_BITS = 9;
+
+    // Once the dictionary is full the ratio is checked this often (in input bytes)
+    private static final int CHECK_INTERVAL = 10_000;
+
+    // Sized for the widest codes, so one table fits any stream
+    private static final ScratchPool<DecodeTable> DECODE_TABLES = new ScratchPool<>(DecodeTable::new);
+
+    private final int maxBits;
+    private final ScratchPool<EncodeTable> encodeTables;
+
+    public LZWEncoder() {
+        this(16);
+    }
+
+    public LZWEncoder(int maxBits) {
+        this.maxBits = Math.max(MIN_BITS, Math.min(16, maxBits));
+        this.encodeTables = new ScratchPool<>(() -> new EncodeTable(1 << this.maxBits));
+    }
+
+    /*
+     * Codes start at 9 bits and widen as the dictionary grows; both sides derive the
+     * width from the next free code, so it is never stored. When the dictionary is
+     * full and the compression ratio starts to drop, a CLEAR code restarts it.
+     * Symbols are raw bytes, so any input round-trips exactly.
+     */
     @Override
-    public void compress(File input, File output) throws IOException {
-        StringBuilder inputText = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(input))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                inputText.append(line).append("\n");
-            }
-        }
+    public void compress(InputStream input, OutputStream output) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(output);
+        buffered.write(MAGIC);
+        buffered.write(VERSION);
+        buffered.write(maxBits);
+        encode(input, new BitWriter(buffered));
+        buffered.flush();
+    }
+
+    @Override
+    public String signature() {
+        return "lzw v" + VERSION + " bits " + maxBits;
+    }
+
+    @Override
+    public int codecId() {
+        return 2;
+    }
+
+    /** Block layout: the code width limit, then the codes up to EOF as in the stream format. */
+    @Override
+    public byte[] encodeBlock(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 16);
+        bytes.write(maxBits);
+        encode(new ByteArrayInputStream(data, 0, length), new BitWriter(bytes));
+        return bytes.toByteArray();
+    }
 
-        if (inputText.length() == 0) {
-            throw new IOException("The file is empty or the text could not be read");
+    @Override
+    public void decodeBlock(byte[] encoded, byte[] data, int length) throws IOException {
+        if (encoded.length == 0) {
+            throw new IOException("Corrupted LZW block");
         }
+        BlockOutput decoded = new BlockOutput(data, length);
+        decode(new BitReader(new ByteArrayInputStream(encoded, 1, encoded.length - 1), encoded.length - 1),
+                checkBits(encoded[0] & 0xFF), decoded);
+        if (decoded.size != length) {
+            throw new IOException("Corrupted LZW block");
+        }
+    }
 
-        Map<String, Integer> dictionary = new HashMap<>();
-        for (int i = 0; i < 256; i++) {
-            dictionary.put("" + (char) i, i);
+    private void encode(InputStream in, BitWriter out) throws IOException {
+        EncodeTable table = encodeTables.acquire();
+        try {
+            encode(in, out, table.dictionary, table.buffer);
+        } finally {
+            encodeTables.release(table);
         }
+    }
 
-        String w = "";
-        List<Integer> compressed = new ArrayList<>();
-        int dictSize = 256;
+    private void encode(InputStream in, BitWriter out, LZWDictionary dictionary, byte[] buffer) throws IOException {
+        Stage stage = Stage.start("lzw", "encode");
+        long totalIn = 0;
+        long totalBits = 0;
+        int limit = 1 << maxBits;
+        dictionary.clear();
+        int nextCode = FIRST_CODE;
+        int w = -1;
 
-        for (char c : inputText.toString().toCharArray()) {
-            String wc = w + c;
-            if (dictionary.containsKey(wc)) {
-                w = wc;
-            } else {
-                compressed.add(dictionary.get(w));
-                dictionary.put(wc, dictSize++);
-                w = "" + c;
+        long inCount = 0;
+        long outBits = 0;
+        long checkpoint = 0;
+        long bestIn = 0;
+        long bestOutBits = 1;
+
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                int next = buffer[i] & 0xFF;
+                inCount++;
+                totalIn++;
+                if (w < 0) {
+                    w = next;
+                    continue;
+                }
+                int wc = dictionary.get(w, next);
+                if (wc >= 0) {
+                    w = wc;
+                    continue;
+                }
+
+                int width = emit(out, w, nextCode);
+                outBits += width;
+                totalBits += width;
+                if (nextCode < limit) {
+                    dictionary.put(w, next, nextCode++);
+                } else if (inCount >= checkpoint) {
+                    checkpoint = inCount + CHECK_INTERVAL;
+                    if (inCount * bestOutBits < bestIn * outBits) {
+                        totalBits += emit(out, CLEAR_CODE, nextCode);
+                        Metrics.count("lzw.clears", 1);
+                        Metrics.record("lzw.dictionary", nextCode);
+                        dictionary.clear();
+                        nextCode = FIRST_CODE;
+                        inCount = 0;
+                        outBits = 0;
+                        checkpoint = 0;
+                        bestIn = 0;
+                        bestOutBits = 1;
+                    } else {
+                        bestIn = inCount;
+                        bestOutBits = outBits;
+                    }
+                }
+                w = next;
             }
         }
 
-        if (!w.isEmpty()) {
-            compressed.add(dictionary.get(w));
+        // Empty input is just the EOF code
+        if (w >= 0) {
+            totalBits += emit(out, w, nextCode);
+            if (nextCode < limit) nextCode++;
         }
+        totalBits += emit(out, EOF_CODE, nextCode);
+        out.flush();
+        stage.end(totalIn, (totalBits + 7) >>> 3);
+        Metrics.record("lzw.dictionary", nextCode);
+        Metrics.count("lzw.compress.bytesIn", totalIn);
+        Metrics.count("lzw.compress.bytesOut", (totalBits + 7) >>> 3);
+    }
 
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(output))) {
-            for (int code : compressed) {
-                out.writeInt(code);
-            }
-        }
+    private static int emit(BitWriter out, int code, int nextCode) throws IOException {
+        int width = codeWidth(nextCode);
+        out.write(code, width);
+        return width;
     }
 
+    private static int codeWidth(int nextCode) {
+        return Math.max(MIN_BITS, 32 - Integer.numberOfLeadingZeros(nextCode - 1));
+    }
 
     @Override
-    public void decompress(File input, File output) throws IOException {
-        List<Integer> compressed = new ArrayList<>();
-        try (DataInputStream in = new DataInputStream(new FileInputStream(input))) {
-            while (in.available() > 0) {
-                compressed.add(in.readInt());
-            }
-        }
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        OutputStream out = new BufferedOutputStream(output);
 
-        if (compressed.isEmpty()) {
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException e) {
             throw new IOException("The compressed file is empty or corrupted");
         }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an LZW-compressed file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported LZW format version: " + version);
+        }
+        int bits = checkBits(in.readUnsignedByte());
+        decode(new BitReader(in), bits, out);
+        out.flush();
+    }
 
-        Map<Integer, String> dictionary = new HashMap<>();
-        for (int i = 0; i < 256; i++) {
-            dictionary.put(i, "" + (char) i);
+    /** Writes the {@code n} bytes of phrase {@code code} to the start of {@code scratch}. */
+    private static void unwind(int code, int n, int[] prefix, byte[] suffix, byte[] scratch) {
+        for (int i = n - 1; i >= 0; i--) {
+            scratch[i] = suffix[code];
+            code = prefix[code];
         }
+    }
 
-        StringBuilder result = new StringBuilder();
-        Iterator<Integer> it = compressed.iterator();
-        Integer firstCode = it.next();
+    private static int checkBits(int bits) throws IOException {
+        if (bits < MIN_BITS || bits > 16) {
+            throw new IOException("Invalid LZW code width: " + bits);
+        }
+        return bits;
+    }
 
-        if (firstCode == null) {
-            throw new IOException("Unable to read the first element in the compressed file");
+    private static void decode(BitReader codes, int bits, OutputStream out) throws IOException {
+        DecodeTable table = DECODE_TABLES.acquire();
+        try {
+            decode(codes, bits, out, table);
+        } finally {
+            DECODE_TABLES.release(table);
         }
+    }
+
+    /*
+     * Entries are (prefix code, last byte, length) triples in the flat arrays of the
+     * table. Each phrase is rebuilt backwards into a scratch buffer and written straight
+     * to the output, so memory is bounded by the dictionary, not the data.
+     */
+    private static void decode(BitReader codes, int bits, OutputStream out, DecodeTable table) throws IOException {
+        Stage stage = Stage.start("lzw", "decode");
+        long totalOut = 0;
+        long totalBits = 0;
+        int limit = 1 << bits;
+
+        int[] prefix = table.prefix;
+        byte[] suffix = table.suffix;
+        int[] length = table.length;
+        byte[] scratch = table.scratch;
+
+        int nextCode = FIRST_CODE;
+        int dictSize = FIRST_CODE;
+        int w = -1;
 
-        String w = "" + (char) firstCode.intValue();
-        result.append(w);
-        int dictSize = 256;
+        while (true) {
+            int width = codeWidth(nextCode);
+            int k = codes.read(width);
+            totalBits += width;
+            if (k == EOF_CODE) {
+                break;
+            }
+            if (k == CLEAR_CODE) {
+                nextCode = FIRST_CODE;
+                dictSize = FIRST_CODE;
+                w = -1;
+                continue;
+            }
 
-        while (it.hasNext()) {
-            Integer k = it.next();
-            if (k == null) continue;
-            String entry;
-            if (dictionary.containsKey(k)) {
-                entry = dictionary.get(k);
-            } else if (k == dictSize) {
-                entry = w + w.charAt(0);
+            int n;
+            if (k < dictSize) {
+                n = length[k];
+                unwind(k, n, prefix, suffix, scratch);
+            } else if (w >= 0 && k == dictSize) {
+                // The code being defined right now: the previous phrase plus its own first byte
+                n = length[w] + 1;
+                unwind(w, n - 1, prefix, suffix, scratch);
+                scratch[n - 1] = scratch[0];
             } else {
-                throw new IllegalArgumentException("Bad compressed k: " + k);
+                throw new IOException("Bad compressed code: " + k);
+            }
+
+            if (w >= 0 && dictSize < limit) {
+                prefix[dictSize] = w;
+                suffix[dictSize] = scratch[0];
+                length[dictSize] = length[w] + 1;
+                dictSize++;
             }
+            out.write(scratch, 0, n);
+            totalOut += n;
+            w = k;
+            if (nextCode < limit) nextCode++;
+        }
+        stage.end((totalBits + 7) >>> 3, totalOut);
+        Metrics.count("lzw.decompress.bytesIn", (totalBits + 7) >>> 3);
+        Metrics.count("lzw.decompress.bytesOut", totalOut);
+    }
+
+    /** Encoder scratch: the phrase table and an input buffer. */
+    private static final class EncodeTable {
+        final LZWDictionary dictionary;
+        final byte[] buffer = new byte[64 * 1024];
+
+        EncodeTable(int limit) {
+            dictionary = new LZWDictionary(limit);
+        }
+    }
+
+    /**
+     * Decoder scratch for codes of up to 16 bits. The single-byte entries never change,
+     * and every later entry is written before it is read, so a table is reused as is.
+     */
+    private static final class DecodeTable {
+        private static final int LIMIT = 1 << 16;
+
+        final int[] prefix = new int[LIMIT];
+        final byte[] suffix = new byte[LIMIT];
+        final int[] length = new int[LIMIT];
+        // A phrase is at most one byte longer than the longest entry
+        final byte[] scratch = new byte[LIMIT - FIRST_CODE + 2];
 
-            result.append(entry);
-            dictionary.put(dictSize++, w + entry.charAt(0));
-            w = entry;
+        DecodeTable() {
+            for (int i = 0; i < 256; i++) {
+                prefix[i] = -1;
+                suffix[i] = (byte) i;
+                length[i] = 1;
+            }
+        }
+    }
+
+    /** Writes into the first {@code limit} bytes of a block, rejecting anything longer. */
+    private static final class BlockOutput extends OutputStream {
+        private final byte[] data;
+        private final int limit;
+        int size;
+
+        BlockOutput(byte[] data, int limit) {
+            this.data = data;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
-            writer.write(result.toString());
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > limit - size) {
+                throw new IOException("Corrupted LZW block");
+            }
+            System.arraycopy(b, off, data, size, len);
+            size += len;
         }
     }
 }
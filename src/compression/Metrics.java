@@ -0,0 +1,114 @@
+package compression;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and histograms filled in by the codecs: bytes in and out,
+ * per-stage latencies and table sizes. Off by default (or set {@code -Dcompression.metrics=true});
+ * when off, every recording call returns after one volatile read.
+ */
+public final class Metrics {
+
+    private static volatile boolean enabled = Boolean.getBoolean("compression.metrics");
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static void count(String name, long delta) {
+        if (enabled) {
+            COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+        }
+    }
+
+    public static void record(String name, long value) {
+        if (enabled) {
+            HISTOGRAMS.computeIfAbsent(name, k -> new Histogram()).record(value);
+        }
+    }
+
+    public static long counter(String name) {
+        LongAdder adder = COUNTERS.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.get(name);
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /** Everything recorded so far, one metric per line in name order. */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(COUNTERS).forEach((name, value) ->
+                sb.append(String.format("%-32s %,d%n", name, value.sum())));
+        new TreeMap<>(HISTOGRAMS).forEach((name, h) ->
+                sb.append(String.format("%-32s n=%,d mean=%,.1f p50<=%,d p99<=%,d max=%,d%n",
+                        name, h.count(), h.mean(), h.percentile(0.5), h.percentile(0.99), h.max())));
+        return sb.toString();
+    }
+
+    /**
+     * Histogram of non-negative values in power-of-two buckets: bucket {@code i} holds
+     * values below {@code 2^i}, so percentiles are upper bounds within a factor of two.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public long percentile(double p) {
+            long n = count.sum();
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max();
+        }
+    }
+}
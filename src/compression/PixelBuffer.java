@@ -0,0 +1,45 @@
+package compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Keeps the decoded image in memory as packed RGB, for callers that want the pixels
+ * rather than a file. {@link #image()} wraps the same array without copying.
+ */
+public final class PixelBuffer implements ImageSink {
+    private BufferedImage image;
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    @Override
+    public void start(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    public void rows(int[] band, int y, int rows) {
+        System.arraycopy(band, 0, pixels, y * width, rows * width);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Row-major packed RGB ({@code 0xRRGGBB}), {@code width} per row. */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public BufferedImage image() {
+        return image;
+    }
+}
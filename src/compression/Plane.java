@@ -0,0 +1,75 @@
+package compression;
+
+/**
+ * One image channel as a flat float array. The stored area is padded to whole 8x8
+ * blocks so block copies never need bounds checks; {@link #padEdges()} fills the
+ * padding by repeating the last column and row.
+ */
+final class Plane {
+    private static final int BLOCK_SIZE = 8;
+
+    final int width;
+    final int height;
+    final int stride;
+    final int rows;
+    final float[] data;
+
+    Plane(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = roundUp(width);
+        this.rows = roundUp(height);
+        this.data = new float[stride * rows];
+    }
+
+    private Plane(int width, int height, int stride, int rows) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.rows = rows;
+        this.data = new float[stride * rows];
+    }
+
+    /**
+     * A plane for a {@code width x height} channel decoded at {@code blockSize / 8} scale:
+     * every 8x8 block of the full-size layout becomes {@code blockSize x blockSize} samples.
+     * The block accessors below only work on full-size planes.
+     */
+    static Plane scaled(int width, int height, int blockSize) {
+        return new Plane((width * blockSize + BLOCK_SIZE - 1) / BLOCK_SIZE,
+                (height * blockSize + BLOCK_SIZE - 1) / BLOCK_SIZE,
+                roundUp(width) / BLOCK_SIZE * blockSize,
+                roundUp(height) / BLOCK_SIZE * blockSize);
+    }
+
+    private static int roundUp(int size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    void padEdges() {
+        if (width == 0 || height == 0) return;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            float last = data[row + width - 1];
+            for (int x = width; x < stride; x++) {
+                data[row + x] = last;
+            }
+        }
+        int lastRow = (height - 1) * stride;
+        for (int y = height; y < rows; y++) {
+            System.arraycopy(data, lastRow, data, y * stride, stride);
+        }
+    }
+
+    void readBlock(int x, int y, float[] block) {
+        for (int i = 0, src = y * stride + x; i < BLOCK_SIZE; i++, src += stride) {
+            System.arraycopy(data, src, block, i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+    }
+
+    void writeBlock(int x, int y, float[] block) {
+        for (int i = 0, dst = y * stride + x; i < BLOCK_SIZE; i++, dst += stride) {
+            System.arraycopy(block, i * BLOCK_SIZE, data, dst, BLOCK_SIZE);
+        }
+    }
+}
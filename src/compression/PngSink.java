@@ -0,0 +1,155 @@
+package compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes 8-bit RGB PNG band by band: every row is filtered as it arrives and the
+ * deflate stream is cut into IDAT chunks, so only one row and one chunk are buffered.
+ * Rows use the Paeth filter, which suits the smooth output of the DCT decoder best.
+ * Deflate runs at its fastest level by default: higher levels barely shrink decoded
+ * photos but make writing them cost several times the decode itself.
+ */
+public final class PngSink implements ImageSink {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int PAETH = 4;
+
+    private final DataOutputStream out;
+    private final int level;
+    private Deflater deflater;
+    private ChunkStream chunks;
+    private DeflaterOutputStream idat;
+    private byte[] previous;
+    private byte[] current;
+    private byte[] filtered;
+
+    public PngSink(OutputStream out) {
+        this(out, Deflater.BEST_SPEED);
+    }
+
+    /** @param level deflate level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION} */
+    public PngSink(OutputStream out, int level) {
+        this.out = new DataOutputStream(out);
+        this.level = level;
+    }
+
+    @Override
+    public void start(int width, int height) throws IOException {
+        if (width == 0 || height == 0) {
+            throw new IOException("PNG cannot hold an empty image");
+        }
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8); // bit depth
+        ihdr.writeByte(2); // truecolor
+        ihdr.writeByte(0); // deflate
+        ihdr.writeByte(0); // adaptive filtering
+        ihdr.writeByte(0); // not interlaced
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        deflater = new Deflater(level);
+        chunks = new ChunkStream();
+        idat = new DeflaterOutputStream(chunks, deflater, CHUNK_SIZE);
+        previous = new byte[3 * width];
+        current = new byte[3 * width];
+        filtered = new byte[1 + 3 * width];
+        filtered[0] = PAETH;
+    }
+
+    @Override
+    public void rows(int[] pixels, int y, int rows) throws IOException {
+        for (int r = 0, p = 0; r < rows; r++) {
+            byte[] row = current;
+            for (int i = 0; i < row.length; i += 3, p++) {
+                int rgb = pixels[p];
+                row[i] = (byte) (rgb >> 16);
+                row[i + 1] = (byte) (rgb >> 8);
+                row[i + 2] = (byte) rgb;
+            }
+            paeth(row, previous, filtered);
+            idat.write(filtered);
+            current = previous;
+            previous = row;
+        }
+    }
+
+    /* The first pixel has no left neighbour, so it predicts from the row above alone. */
+    private static void paeth(byte[] row, byte[] above, byte[] out) {
+        for (int i = 0; i < 3 && i < row.length; i++) {
+            out[1 + i] = (byte) (row[i] - above[i]);
+        }
+        for (int i = 3; i < row.length; i++) {
+            int a = row[i - 3] & 0xFF;
+            int b = above[i] & 0xFF;
+            int c = above[i - 3] & 0xFF;
+            int pa = Math.abs(b - c);
+            int pb = Math.abs(a - c);
+            int pc = Math.abs(a + b - 2 * c);
+            int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+            out[1 + i] = (byte) (row[i] - predictor);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        idat.finish();
+        chunks.flush();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /** Collects deflate output and emits it as IDAT chunks of up to CHUNK_SIZE bytes. */
+    private final class ChunkStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(data, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                writeChunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
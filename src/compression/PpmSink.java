@@ -0,0 +1,55 @@
+package compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes binary PPM (P6): a short text header and then three bytes per pixel, so each
+ * band goes straight to the stream. {@link #raw} drops the header and leaves bare RGB.
+ */
+public final class PpmSink implements ImageSink {
+    private final OutputStream out;
+    private final boolean header;
+    private byte[] row;
+
+    public PpmSink(OutputStream out) {
+        this(out, true);
+    }
+
+    private PpmSink(OutputStream out, boolean header) {
+        this.out = out;
+        this.header = header;
+    }
+
+    /** Headerless RGB bytes; the reader has to know the dimensions. */
+    public static PpmSink raw(OutputStream out) {
+        return new PpmSink(out, false);
+    }
+
+    @Override
+    public void start(int width, int height) throws IOException {
+        if (header) {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        row = new byte[3 * width];
+    }
+
+    @Override
+    public void rows(int[] pixels, int y, int rows) throws IOException {
+        for (int r = 0, p = 0; r < rows; r++) {
+            for (int i = 0; i < row.length; i += 3, p++) {
+                int rgb = pixels[p];
+                row[i] = (byte) (rgb >> 16);
+                row[i + 1] = (byte) (rgb >> 8);
+                row[i + 2] = (byte) rgb;
+            }
+            out.write(row);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+}
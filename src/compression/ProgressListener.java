@@ -0,0 +1,19 @@
+package compression;
+
+import java.io.IOException;
+
+/**
+ * Receives running byte counts while a file is coded. Calls come from the coding
+ * thread every few hundred kilobytes and once at the end; throwing aborts the job.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    ProgressListener NONE = (bytesRead, bytesWritten) -> { };
+
+    /**
+     * @param bytesRead    bytes consumed from the input file so far
+     * @param bytesWritten bytes written to the output file so far
+     */
+    void progress(long bytesRead, long bytesWritten) throws IOException;
+}
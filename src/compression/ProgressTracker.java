@@ -0,0 +1,78 @@
+package compression;
+
+import java.io.*;
+
+/**
+ * Counts the bytes flowing through a pair of file streams and reports them to a
+ * {@link ProgressListener}. Every read and write also checks the thread's interrupt
+ * flag, so cancelling a job stops the codec at its next I/O call.
+ */
+final class ProgressTracker {
+    private static final long REPORT_INTERVAL = 256 * 1024;
+
+    private final ProgressListener listener;
+    private long read;
+    private long written;
+    private long lastReport;
+
+    ProgressTracker(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) advance(1, 0);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int n = super.read(buffer, off, len);
+                if (n > 0) advance(n, 0);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                advance(skipped, 0);
+                return skipped;
+            }
+        };
+    }
+
+    OutputStream count(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                advance(0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int off, int len) throws IOException {
+                out.write(buffer, off, len);
+                advance(0, len);
+            }
+        };
+    }
+
+    private void advance(long in, long out) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+        read += in;
+        written += out;
+        if (read + written - lastReport >= REPORT_INTERVAL) {
+            lastReport = read + written;
+            listener.progress(read, written);
+        }
+    }
+
+    void finish() throws IOException {
+        listener.progress(read, written);
+    }
+}
@@ -0,0 +1,37 @@
+package compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A bounded stock of reusable scratch objects (block buffers, dictionaries, coefficient
+ * arrays), so a codec instance shared by many threads does not allocate them on every
+ * call. Unlike a ThreadLocal it also pays off on virtual threads, which are never
+ * reused, and for buffers that one thread fills and another releases.
+ * <p>
+ * An empty pool makes a new object; a full pool drops what is released. Callers must
+ * not touch an object after releasing it, and need not release one they gave up on.
+ */
+final class ScratchPool<T> {
+    private final Supplier<T> factory;
+    private final ArrayBlockingQueue<T> free;
+
+    /** Keeps up to one object per core. */
+    ScratchPool(Supplier<T> factory) {
+        this(Runtime.getRuntime().availableProcessors(), factory);
+    }
+
+    ScratchPool(int capacity, Supplier<T> factory) {
+        this.factory = factory;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    T acquire() {
+        T scratch = free.poll();
+        return scratch != null ? scratch : factory.get();
+    }
+
+    void release(T scratch) {
+        free.offer(scratch);
+    }
+}
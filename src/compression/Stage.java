@@ -0,0 +1,71 @@
+package compression;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Times one pipeline stage into {@link Metrics} (as {@code codec.stage.us}) and as a
+ * {@link StageEvent}. With metrics off and no recording active, {@link #start} hands
+ * back a shared no-op and costs no clock reads or allocation.
+ */
+final class Stage {
+    private static final Stage NOOP = new Stage(null, null, false, false);
+
+    private final String codec;
+    private final String name;
+    private final boolean metrics;
+    private final StageEvent event;
+    private final long start;
+
+    private Stage(String codec, String name, boolean metrics, boolean jfr) {
+        this.codec = codec;
+        this.name = name;
+        this.metrics = metrics;
+        if (jfr) {
+            event = new StageEvent();
+            event.begin();
+        } else {
+            event = null;
+        }
+        this.start = metrics ? System.nanoTime() : 0;
+    }
+
+    static Stage start(String codec, String name) {
+        boolean metrics = Metrics.isEnabled();
+        boolean jfr = FlightRecorder.isInitialized() && Jfr.PROBE.isEnabled();
+        if (!metrics && !jfr) {
+            return NOOP;
+        }
+        return new Stage(codec, name, metrics, jfr);
+    }
+
+    /*
+     * Loading any jdk.jfr.Event subclass brings up JFR's event machinery, which takes
+     * longer than a typical job, so the event class is only touched once a recorder exists.
+     */
+    private static final class Jfr {
+        static final StageEvent PROBE = new StageEvent();
+    }
+
+    void end() {
+        end(0, 0);
+    }
+
+    void end(long bytesIn, long bytesOut) {
+        if (this == NOOP) {
+            return;
+        }
+        if (metrics) {
+            Metrics.record(codec + "." + name + ".us", (System.nanoTime() - start) / 1000);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.codec = codec;
+                event.stage = name;
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.commit();
+            }
+        }
+    }
+}
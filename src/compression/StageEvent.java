@@ -0,0 +1,30 @@
+package compression;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JFR event spanning one pipeline stage of one codec call. */
+@Name("compression.Stage")
+@Label("Codec Stage")
+@Category("Compression")
+@Description("Time spent in one stage of a compressor, e.g. JPEG entropy coding of one segment")
+@StackTrace(false)
+final class StageEvent extends jdk.jfr.Event {
+    @Label("Codec")
+    String codec;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+}
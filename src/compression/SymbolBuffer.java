@@ -0,0 +1,51 @@
+package compression;
+
+import java.util.Arrays;
+
+/** Growable array of 16-bit symbols, used instead of a boxed {@code List<Short>}. */
+public final class SymbolBuffer {
+    private short[] data;
+    private int size;
+
+    public SymbolBuffer() {
+        this(1024);
+    }
+
+    public SymbolBuffer(int capacity) {
+        data = new short[Math.max(16, capacity)];
+    }
+
+    public void add(int symbol) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = (short) symbol;
+    }
+
+    public short get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return data[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /** Grows the backing array to hold at least {@code capacity} symbols. */
+    void reserve(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, capacity);
+        }
+    }
+
+    /** Backing array; only the first {@link #size()} entries are valid. */
+    short[] array() {
+        return data;
+    }
+}
@@ -0,0 +1,236 @@
+package compression;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on the Vector API with 8 float lanes. An 8x8 block is eight row
+ * vectors, so one butterfly over the vectors transforms all eight columns at once; the
+ * row pass transposes through a scratch block first. Every lane performs the same float
+ * operations in the same order as the scalar code, which keeps the results bit-identical.
+ * <p>
+ * Only {@link Kernels#vector()} may load this class: it links against
+ * {@code jdk.incubator.vector}, which is absent unless the JVM was started with it.
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_256;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_256;
+    private static final int SIZE = DCT.SIZE;
+
+    private VectorKernels() {
+    }
+
+    /** {@code null} when the CPU has no 256-bit vectors and the lanes would be emulated. */
+    static Kernels create() {
+        return FloatVector.SPECIES_PREFERRED.vectorBitSize() >= F.vectorBitSize() ? new VectorKernels() : null;
+    }
+
+    @Override
+    String name() {
+        return "vector";
+    }
+
+    @Override
+    void luma(int[] rgb, int rgbOffset, float[] y, int yOffset, int count) {
+        int i = 0;
+        for (int bound = I.loopBound(count); i < bound; i += I.length()) {
+            IntVector p = IntVector.fromArray(I, rgb, rgbOffset + i);
+            FloatVector r = (FloatVector) p.lanewise(VectorOperators.LSHR, 16).and(0xFF).convert(VectorOperators.I2F, 0);
+            FloatVector g = (FloatVector) p.lanewise(VectorOperators.LSHR, 8).and(0xFF).convert(VectorOperators.I2F, 0);
+            FloatVector b = (FloatVector) p.and(0xFF).convert(VectorOperators.I2F, 0);
+            r.mul(0.299f).add(g.mul(0.587f)).add(b.mul(0.114f)).sub(128f).intoArray(y, yOffset + i);
+        }
+        super.luma(rgb, rgbOffset + i, y, yOffset + i, count - i);
+    }
+
+    @Override
+    void toRGB(float[] y, int yOffset, float[] cb, float[] cr, int chromaOffset,
+               int[] pixels, int pixelOffset, int count) {
+        int i = 0;
+        for (int bound = F.loopBound(count); i < bound; i += F.length()) {
+            FloatVector Y = FloatVector.fromArray(F, y, yOffset + i).add(128f);
+            FloatVector Cb = FloatVector.fromArray(F, cb, chromaOffset + i);
+            FloatVector Cr = FloatVector.fromArray(F, cr, chromaOffset + i);
+            IntVector r = toByte(Y.add(Cr.mul(1.402f)));
+            IntVector g = toByte(Y.sub(Cb.mul(0.344136f)).sub(Cr.mul(0.714136f)));
+            IntVector b = toByte(Y.add(Cb.mul(1.772f)));
+            r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b)
+                    .intoArray(pixels, pixelOffset + i);
+        }
+        super.toRGB(y, yOffset + i, cb, cr, chromaOffset + i, pixels, pixelOffset + i, count - i);
+    }
+
+    /** {@code clamp((int) v)}: negative lanes end up 0 either way, so they are cut off before truncating. */
+    private static IntVector toByte(FloatVector v) {
+        return magnitude(v.max(0f).reinterpretAsInts()).min(255);
+    }
+
+    /*
+     * (int) cast of every lane, for |x| < 2^31. JDK 17 has no intrinsic for the F2I
+     * conversion, so the mantissa is shifted by the exponent instead.
+     */
+    private static IntVector truncate(FloatVector x) {
+        IntVector bits = x.reinterpretAsInts();
+        return magnitude(bits).lanewise(VectorOperators.NEG, bits.compare(VectorOperators.LT, 0));
+    }
+
+    /** Integer part of the absolute value of the floats with these bit patterns. */
+    private static IntVector magnitude(IntVector bits) {
+        IntVector shift = bits.lanewise(VectorOperators.LSHR, 23).and(0xFF).neg().add(150);
+        return bits.and(0x7FFFFF).or(0x800000)
+                .lanewise(VectorOperators.LSHL, shift.neg().max(0))
+                .lanewise(VectorOperators.LSHR, shift.max(0).min(31));
+    }
+
+    @Override
+    void forwardDct(float[] block, float[] scratch) {
+        // Rows first, like DCT.forwardFloat: transpose so the rows become columns
+        transpose(block, scratch);
+        forwardColumns(scratch);
+        transpose(scratch, block);
+        forwardColumns(block);
+    }
+
+    /*
+     * Math.round(x) is floor(x + 0.5); adding 0.5 in float can round up, so the
+     * fraction left after truncation is compared against 0.5 instead. Exact for the
+     * range of quantized coefficients.
+     */
+    @Override
+    void quantize(float[] coefficients, float[] divisors, int[] out) {
+        for (int i = 0; i < out.length; i += F.length()) {
+            FloatVector x = FloatVector.fromArray(F, coefficients, i).mul(FloatVector.fromArray(F, divisors, i));
+            IntVector truncated = truncate(x);
+            FloatVector fraction = x.sub((FloatVector) truncated.convert(VectorOperators.I2F, 0));
+            truncated.add(1, fraction.compare(VectorOperators.GE, 0.5f).cast(I))
+                    .sub(1, fraction.compare(VectorOperators.LT, -0.5f).cast(I))
+                    .intoArray(out, i);
+        }
+    }
+
+    @Override
+    void inverseDct(int[] coefficients, float[] multipliers, float[] out, float[] scratch) {
+        for (int i = 0; i < DCT.COEFFICIENTS; i += F.length()) {
+            ((FloatVector) IntVector.fromArray(I, coefficients, i).convert(VectorOperators.I2F, 0))
+                    .mul(FloatVector.fromArray(F, multipliers, i))
+                    .intoArray(out, i);
+        }
+        // Columns first, like DCT.inverseFloat
+        inverseColumns(out);
+        transpose(out, scratch);
+        inverseColumns(scratch);
+        transpose(scratch, out);
+    }
+
+    private static void transpose(float[] src, float[] dst) {
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                dst[j * SIZE + i] = src[i * SIZE + j];
+            }
+        }
+    }
+
+    /** DCT.forwardFloat1D down all eight columns; vector k is row k. */
+    private static void forwardColumns(float[] d) {
+        FloatVector d0 = FloatVector.fromArray(F, d, 0);
+        FloatVector d1 = FloatVector.fromArray(F, d, SIZE);
+        FloatVector d2 = FloatVector.fromArray(F, d, 2 * SIZE);
+        FloatVector d3 = FloatVector.fromArray(F, d, 3 * SIZE);
+        FloatVector d4 = FloatVector.fromArray(F, d, 4 * SIZE);
+        FloatVector d5 = FloatVector.fromArray(F, d, 5 * SIZE);
+        FloatVector d6 = FloatVector.fromArray(F, d, 6 * SIZE);
+        FloatVector d7 = FloatVector.fromArray(F, d, 7 * SIZE);
+
+        FloatVector tmp0 = d0.add(d7);
+        FloatVector tmp7 = d0.sub(d7);
+        FloatVector tmp1 = d1.add(d6);
+        FloatVector tmp6 = d1.sub(d6);
+        FloatVector tmp2 = d2.add(d5);
+        FloatVector tmp5 = d2.sub(d5);
+        FloatVector tmp3 = d3.add(d4);
+        FloatVector tmp4 = d3.sub(d4);
+
+        // Even part
+        FloatVector tmp10 = tmp0.add(tmp3);
+        FloatVector tmp13 = tmp0.sub(tmp3);
+        FloatVector tmp11 = tmp1.add(tmp2);
+        FloatVector tmp12 = tmp1.sub(tmp2);
+
+        tmp10.add(tmp11).intoArray(d, 0);
+        tmp10.sub(tmp11).intoArray(d, 4 * SIZE);
+
+        FloatVector z1 = tmp12.add(tmp13).mul(0.707106781f);
+        tmp13.add(z1).intoArray(d, 2 * SIZE);
+        tmp13.sub(z1).intoArray(d, 6 * SIZE);
+
+        // Odd part
+        tmp10 = tmp4.add(tmp5);
+        tmp11 = tmp5.add(tmp6);
+        tmp12 = tmp6.add(tmp7);
+
+        FloatVector z5 = tmp10.sub(tmp12).mul(0.382683433f);
+        FloatVector z2 = tmp10.mul(0.541196100f).add(z5);
+        FloatVector z4 = tmp12.mul(1.306562965f).add(z5);
+        FloatVector z3 = tmp11.mul(0.707106781f);
+
+        FloatVector z11 = tmp7.add(z3);
+        FloatVector z13 = tmp7.sub(z3);
+
+        z13.add(z2).intoArray(d, 5 * SIZE);
+        z13.sub(z2).intoArray(d, 3 * SIZE);
+        z11.add(z4).intoArray(d, SIZE);
+        z11.sub(z4).intoArray(d, 7 * SIZE);
+    }
+
+    /** DCT.inverseFloat1D down all eight columns; vector k is row k. */
+    private static void inverseColumns(float[] d) {
+        // Even part
+        FloatVector tmp0 = FloatVector.fromArray(F, d, 0);
+        FloatVector tmp1 = FloatVector.fromArray(F, d, 2 * SIZE);
+        FloatVector tmp2 = FloatVector.fromArray(F, d, 4 * SIZE);
+        FloatVector tmp3 = FloatVector.fromArray(F, d, 6 * SIZE);
+
+        FloatVector tmp10 = tmp0.add(tmp2);
+        FloatVector tmp11 = tmp0.sub(tmp2);
+        FloatVector tmp13 = tmp1.add(tmp3);
+        FloatVector tmp12 = tmp1.sub(tmp3).mul(1.414213562f).sub(tmp13);
+
+        tmp0 = tmp10.add(tmp13);
+        tmp3 = tmp10.sub(tmp13);
+        tmp1 = tmp11.add(tmp12);
+        tmp2 = tmp11.sub(tmp12);
+
+        // Odd part
+        FloatVector tmp4 = FloatVector.fromArray(F, d, SIZE);
+        FloatVector tmp5 = FloatVector.fromArray(F, d, 3 * SIZE);
+        FloatVector tmp6 = FloatVector.fromArray(F, d, 5 * SIZE);
+        FloatVector tmp7 = FloatVector.fromArray(F, d, 7 * SIZE);
+
+        FloatVector z13 = tmp6.add(tmp5);
+        FloatVector z10 = tmp6.sub(tmp5);
+        FloatVector z11 = tmp4.add(tmp7);
+        FloatVector z12 = tmp4.sub(tmp7);
+
+        tmp7 = z11.add(z13);
+        tmp11 = z11.sub(z13).mul(1.414213562f);
+
+        FloatVector z5 = z10.add(z12).mul(1.847759065f);
+        tmp10 = z12.mul(1.082392200f).sub(z5);
+        tmp12 = z10.mul(-2.613125930f).add(z5);
+
+        tmp6 = tmp12.sub(tmp7);
+        tmp5 = tmp11.sub(tmp6);
+        tmp4 = tmp10.add(tmp5);
+
+        tmp0.add(tmp7).intoArray(d, 0);
+        tmp0.sub(tmp7).intoArray(d, 7 * SIZE);
+        tmp1.add(tmp6).intoArray(d, SIZE);
+        tmp1.sub(tmp6).intoArray(d, 6 * SIZE);
+        tmp2.add(tmp5).intoArray(d, 2 * SIZE);
+        tmp2.sub(tmp5).intoArray(d, 5 * SIZE);
+        tmp3.add(tmp4).intoArray(d, 4 * SIZE);
+        tmp3.sub(tmp4).intoArray(d, 3 * SIZE);
+    }
+}
@@ -0,0 +1,124 @@
+package compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64 (seed 0): a non-cryptographic 64-bit hash that runs at memory speed,
+ * used to recognise inputs that were seen before. Not for anything adversarial.
+ */
+final class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long total;
+    // Input not yet consumed as a whole 32-byte stripe
+    private final byte[] pending = new byte[32];
+    private int pendingSize;
+
+    static long hash(byte[] data) {
+        XxHash64 hash = new XxHash64();
+        hash.update(data, 0, data.length);
+        return hash.digest();
+    }
+
+    /** Hashes the rest of the stream, leaving it at the end. */
+    static long hash(InputStream in) throws IOException {
+        XxHash64 hash = new XxHash64();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            hash.update(buffer, 0, n);
+        }
+        return hash.digest();
+    }
+
+    void update(byte[] data, int off, int len) {
+        total += len;
+        if (pendingSize > 0) {
+            int n = Math.min(len, 32 - pendingSize);
+            System.arraycopy(data, off, pending, pendingSize, n);
+            pendingSize += n;
+            off += n;
+            len -= n;
+            if (pendingSize < 32) {
+                return;
+            }
+            stripe(pending, 0);
+            pendingSize = 0;
+        }
+        int end = off + len;
+        for (; off + 32 <= end; off += 32) {
+            stripe(data, off);
+        }
+        System.arraycopy(data, off, pending, 0, end - off);
+        pendingSize = end - off;
+    }
+
+    private void stripe(byte[] data, int off) {
+        v1 = round(v1, (long) LONGS.get(data, off));
+        v2 = round(v2, (long) LONGS.get(data, off + 8));
+        v3 = round(v3, (long) LONGS.get(data, off + 16));
+        v4 = round(v4, (long) LONGS.get(data, off + 24));
+    }
+
+    long digest() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += total;
+
+        int i = 0;
+        for (; i + 8 <= pendingSize; i += 8) {
+            h ^= round(0, (long) LONGS.get(pending, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= pendingSize) {
+            h ^= ((int) INTS.get(pending, i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < pendingSize; i++) {
+            h ^= (pending[i] & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+}
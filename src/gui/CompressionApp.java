@@ -9,11 +9,27 @@ import java.awt.event.ActionEvent;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.awt.BorderLayout;
 
 public class CompressionApp extends JFrame {
 
+    private static final int PREVIEW_CHARS = 64 * 1024;
+
+    // Codecs are stateless, so every job with the same algorithm shares one instance
+    private static final HuffmanEncoder HUFFMAN = new HuffmanEncoder();
+    private static final LZWEncoder LZW = new LZWEncoder();
+    private static final Map<String, Compressor> COMPRESSORS = Map.of(
+            "Huffman", HUFFMAN,
+            "LZW", LZW,
+            "Huffman (parallel)", new FramedCompressor(HUFFMAN),
+            "LZW (parallel)", new FramedCompressor(LZW),
+            "JPEG", new JPEGCompressor(30, JPEGCompressor.DctMode.FLOAT, ForkJoinPool.commonPool()));
+
     private JComboBox<String> algorithmBox;
     private final JTextArea logArea = new JTextArea(10, 40);
     private File selectedInputFile;
@@ -21,11 +37,17 @@ public class CompressionApp extends JFrame {
     private Compressor currentCompressor;
     private final JTextArea inputArea = new JTextArea(5, 40);
     private final JTextArea outputArea = new JTextArea(5, 40);
+    private final JButton compressButton = new JButton("Compress");
+    private final JButton decompressButton = new JButton("Decompress");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JCheckBox metricsBox = new JCheckBox("Collect metrics");
+    private CodecJob runningJob;
 
     public CompressionApp() {
         super("Compression App");
 
-        algorithmBox = new JComboBox<>(new String[]{"Huffman", "LZW", "JPEG"});
+        algorithmBox = new JComboBox<>(new String[]{"Huffman", "LZW", "Huffman (parallel)", "LZW (parallel)", "JPEG"});
         algorithmBox.addActionListener(e -> {
             updateCompressor();
             showSupportedExtensions();
@@ -35,12 +57,15 @@ public class CompressionApp extends JFrame {
         JButton selectInputButton = new JButton("Select Input File");
         selectInputButton.addActionListener(this::onSelectInput);
 
-        JButton compressButton = new JButton("Compress");
         compressButton.addActionListener(this::compress);
-
-        JButton decompressButton = new JButton("Decompress");
         decompressButton.addActionListener(this::decompress);
 
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(this::cancelJob);
+
+        metricsBox.setSelected(Metrics.isEnabled());
+        metricsBox.addActionListener(e -> Metrics.setEnabled(metricsBox.isSelected()));
+
         JButton clearButton = new JButton("Clear");
         clearButton.addActionListener(e -> {
             inputArea.setText("");
@@ -56,7 +81,9 @@ public class CompressionApp extends JFrame {
         controls.add(selectInputButton);
         controls.add(compressButton);
         controls.add(decompressButton);
+        controls.add(cancelButton);
         controls.add(clearButton);
+        controls.add(metricsBox);
 
         inputArea.setBorder(BorderFactory.createTitledBorder("Input Text (optional)"));
         outputArea.setBorder(BorderFactory.createTitledBorder("Output Preview"));
@@ -72,10 +99,16 @@ public class CompressionApp extends JFrame {
         JScrollPane logScroll = new JScrollPane(logArea);
         logScroll.setBorder(BorderFactory.createTitledBorder("Log"));
 
+        progressBar.setStringPainted(true);
+        progressBar.setString("Idle");
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(progressBar, BorderLayout.NORTH);
+        bottom.add(logScroll, BorderLayout.CENTER);
+
         setLayout(new BorderLayout());
         add(controls, BorderLayout.WEST);
         add(ioPanel, BorderLayout.CENTER);
-        add(logScroll, BorderLayout.SOUTH);
+        add(bottom, BorderLayout.SOUTH);
 
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         pack();
@@ -85,12 +118,7 @@ public class CompressionApp extends JFrame {
     }
 
     private void updateCompressor() {
-        String selected = (String) algorithmBox.getSelectedItem();
-        switch (selected) {
-            case "Huffman" -> currentCompressor = new HuffmanEncoder();
-            case "LZW" -> currentCompressor = new LZWEncoder();
-            case "JPEG" -> currentCompressor = new JPEGCompressor();
-        }
+        currentCompressor = COMPRESSORS.get((String) algorithmBox.getSelectedItem());
     }
 
     private void showSupportedExtensions() {
@@ -150,36 +178,25 @@ public class CompressionApp extends JFrame {
             String extension = currentCompressor instanceof JPEGCompressor ? ".jpegcomp" : ".out";
             File output = new File(inputFile.getParent(), "compressed_" + baseName + extension);
 
-            // 🔽 ВСТАВ ЦЕ СЮДИ: ВИМІРЮВАННЯ ЧАСУ
-            long startTime = System.currentTimeMillis();
-            currentCompressor.compress(inputFile, output);
-            long endTime = System.currentTimeMillis();
-            long duration = endTime - startTime;
-            log("⏱ Compression time: " + duration + " ms");
-
-            generatedOutputFile = output;
-            selectedInputFile = output;
+            startJob(new CodecJob(currentCompressor, inputFile, output, false) {
+                @Override
+                void succeeded(long millis) {
+                    log("⏱ Compression time: " + millis + " ms");
+                    generatedOutputFile = output;
+                    selectedInputFile = output;
 
-            log("✅ Compression successful: " + output.getName());
-            showContentPreview(output);
+                    log("✅ Compression successful: " + output.getName());
+                    showContentPreview(output);
 
-            int confirm = JOptionPane.showConfirmDialog(this,
-                    "Compression complete. Save result to your PC?",
-                    "Save?", JOptionPane.YES_NO_OPTION);
+                    int confirm = JOptionPane.showConfirmDialog(CompressionApp.this,
+                            "Compression complete. Save result to your PC?",
+                            "Save?", JOptionPane.YES_NO_OPTION);
 
-            if (confirm == JOptionPane.YES_OPTION) {
-                downloadOutput();
-            }
-
-            if (inputFile.length() > 5 * 1024 * 1024 && currentCompressor instanceof JPEGCompressor) {
-                showError("Max image size is 5MB.");
-                return;
-            }
-
-            if (inputFile.length() > 1 * 1024 * 1024 && !(currentCompressor instanceof JPEGCompressor)) {
-                showError("Max text file size is 1MB.");
-                return;
-            }
+                    if (confirm == JOptionPane.YES_OPTION) {
+                        downloadOutput();
+                    }
+                }
+            });
 
         } catch (Exception ex) {
             showError("❌ Compression failed: " + ex.getMessage());
@@ -188,51 +205,193 @@ public class CompressionApp extends JFrame {
 
 
     private void decompress(ActionEvent e) {
-        try {
-            if (selectedInputFile == null && generatedOutputFile == null) {
-                showError("No input for decompression.");
-                return;
-            }
+        if (selectedInputFile == null && generatedOutputFile == null) {
+            showError("No input for decompression.");
+            return;
+        }
 
-            File fileToUse = generatedOutputFile != null ? generatedOutputFile : selectedInputFile;
-            String baseName = fileToUse.getName().replaceAll("\\.[^.]+$", "");
-
-            File output;
-            if (currentCompressor instanceof JPEGCompressor) {
-                String[] options = {".jpg", ".png"};
-                int choice = JOptionPane.showOptionDialog(this,
-                        "In which format would you like to save the decompressed image?",
-                        "Choose Format",
-                        JOptionPane.DEFAULT_OPTION,
-                        JOptionPane.QUESTION_MESSAGE,
-                        null,
-                        options,
-                        options[0]);
-
-                String extension = choice == 1 ? ".png" : ".jpg";
-                output = new File(fileToUse.getParent(), "decompressed_" + baseName + extension);
-            } else {
-                output = new File(fileToUse.getParent(), "decompressed_" + baseName + ".txt");
+        File fileToUse = generatedOutputFile != null ? generatedOutputFile : selectedInputFile;
+        String baseName = fileToUse.getName().replaceAll("\\.[^.]+$", "");
+
+        File output;
+        if (currentCompressor instanceof JPEGCompressor) {
+            String[] options = {".png", ".jpg", ".ppm"};
+            int choice = JOptionPane.showOptionDialog(this,
+                    "In which format would you like to save the decompressed image?",
+                    "Choose Format",
+                    JOptionPane.DEFAULT_OPTION,
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    options,
+                    options[0]);
+
+            String extension = choice >= 0 ? options[choice] : options[0];
+            output = new File(fileToUse.getParent(), "decompressed_" + baseName + extension);
+        } else {
+            output = new File(fileToUse.getParent(), "decompressed_" + baseName + ".txt");
+        }
+
+        startJob(new CodecJob(currentCompressor, fileToUse, output, true) {
+            @Override
+            void succeeded(long millis) {
+                log("⏱ Decompression time: " + millis + " ms");
+                generatedOutputFile = output;
+
+                log("✅ Decompression successful.");
+                showContentPreview(output);
+
+                JFileChooser chooser = new JFileChooser();
+                chooser.setDialogTitle("Save Decompressed File");
+                chooser.setSelectedFile(new File(output.getName()));
+
+                if (chooser.showSaveDialog(CompressionApp.this) == JFileChooser.APPROVE_OPTION) {
+                    try {
+                        Files.copy(output.toPath(), chooser.getSelectedFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        JOptionPane.showMessageDialog(CompressionApp.this, "File saved successfully.", "Saved", JOptionPane.INFORMATION_MESSAGE);
+                        generatedOutputFile = null;
+                    } catch (IOException ex) {
+                        showError("Failed to save file: " + ex.getMessage());
+                    }
+                }
             }
+        });
+    }
 
-            currentCompressor.decompress(fileToUse, output);
-            generatedOutputFile = output;
+    private void startJob(CodecJob job) {
+        runningJob = job;
+        compressButton.setEnabled(false);
+        decompressButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        progressBar.setValue(0);
+        progressBar.setString(job.decompress ? "Decompressing..." : "Compressing...");
+        Metrics.reset();
+        job.execute();
+    }
+
+    private void cancelJob(ActionEvent e) {
+        if (runningJob != null) {
+            runningJob.cancel(true);
+            cancelButton.setEnabled(false);
+        }
+    }
 
-            log("✅ Decompression successful.");
-            showContentPreview(output);
+    /**
+     * Runs one codec call off the event dispatch thread. Progress comes back through
+     * {@link #process}; {@link #succeeded} runs on the EDT once the output is complete.
+     * <p>
+     * {@link #done} runs as soon as the job is cancelled, while the codec may still be
+     * writing, so the buttons only come back in {@link #stopped} once the background
+     * thread has left the codec, and a partial output is deleted by that thread itself.
+     */
+    private abstract class CodecJob extends SwingWorker<Void, long[]> {
+        private final Compressor compressor;
+        private final File input;
+        private final File output;
+        final boolean decompress;
+        private final long total;
+        private long startNanos;
+        // Set by whichever of the worker and a cancellation before it started gets there first
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        CodecJob(Compressor compressor, File input, File output, boolean decompress) {
+            this.compressor = compressor;
+            this.input = input;
+            this.output = output;
+            this.decompress = decompress;
+            this.total = input.length();
+        }
 
-            JFileChooser chooser = new JFileChooser();
-            chooser.setDialogTitle("Save Decompressed File");
-            chooser.setSelectedFile(new File(output.getName()));
+        abstract void succeeded(long millis);
 
-            if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-                Files.copy(output.toPath(), chooser.getSelectedFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
-                JOptionPane.showMessageDialog(this, "File saved successfully.", "Saved", JOptionPane.INFORMATION_MESSAGE);
-                generatedOutputFile = null;
+        @Override
+        protected Void doInBackground() throws Exception {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
             }
+            startNanos = System.nanoTime();
+            ProgressListener listener = (read, written) -> publish(new long[]{read, written});
+            boolean complete = false;
+            try {
+                if (decompress) {
+                    compressor.decompress(input, output, listener);
+                } else {
+                    compressor.compress(input, output, listener);
+                }
+                complete = true;
+                return null;
+            } finally {
+                // The codec has closed the output by now, so this works on every platform
+                if (!complete || isCancelled()) {
+                    output.delete();
+                }
+                SwingUtilities.invokeLater(this::stopped);
+            }
+        }
 
-        } catch (Exception ex) {
-            showError("❌ Decompression failed: " + ex.getMessage());
+        /** On the EDT once no thread is running the codec for this job any more. */
+        private void stopped() {
+            runningJob = null;
+            compressButton.setEnabled(true);
+            decompressButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+            if (isCancelled()) {
+                progressBar.setValue(0);
+                progressBar.setString("Cancelled");
+                log("⛔ " + (decompress ? "Decompression" : "Compression") + " cancelled.");
+            }
+        }
+
+        @Override
+        protected void process(java.util.List<long[]> updates) {
+            long[] latest = updates.get(updates.size() - 1);
+            long read = latest[0];
+            long written = latest[1];
+            double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+            double rate = read / seconds;
+            int percent = total > 0 ? (int) Math.min(100, read * 100 / total) : 100;
+            long compressed = decompress ? read : written;
+            long plain = decompress ? written : read;
+
+            StringBuilder status = new StringBuilder();
+            status.append(percent).append("%  ").append(String.format("%.1f MB/s", rate / 1e6));
+            if (rate > 0 && read < total) {
+                status.append(String.format("  ETA %.0f s", (total - read) / rate));
+            }
+            if (plain > 0) {
+                status.append(String.format("  ratio %.3f", (double) compressed / plain));
+            }
+            progressBar.setValue(percent);
+            progressBar.setString(status.toString());
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                if (claimed.compareAndSet(false, true)) {
+                    stopped(); // cancelled before the worker started
+                } else {
+                    progressBar.setString("Cancelling...");
+                }
+                return;
+            }
+            String action = decompress ? "Decompression" : "Compression";
+            try {
+                get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                progressBar.setString(action + " failed");
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                showError("❌ " + action + " failed: " + cause.getMessage());
+                return;
+            }
+            progressBar.setValue(100);
+            progressBar.setString(action + " complete");
+            if (Metrics.isEnabled()) {
+                log("📊 Metrics:\n" + Metrics.report());
+            }
+            succeeded((System.nanoTime() - startNanos) / 1_000_000);
         }
     }
 
@@ -270,17 +429,21 @@ public class CompressionApp extends JFrame {
 
     private void showContentPreview(File file) {
         String name = file.getName().toLowerCase();
-        if (name.endsWith(".jpegcomp") || name.endsWith(".png")) {
+        if (name.endsWith(".jpegcomp") || name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".ppm")) {
             outputArea.setText("[Binary image content]");
             return;
         }
 
+        // Files are no longer size-limited, so only the start is shown
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             StringBuilder sb = new StringBuilder();
             String line;
-            while ((line = reader.readLine()) != null) {
+            while ((line = reader.readLine()) != null && sb.length() < PREVIEW_CHARS) {
                 sb.append(line).append("\n");
             }
+            if (line != null) {
+                sb.append("...");
+            }
             outputArea.setText(sb.toString());
         } catch (IOException e) {
             outputArea.setText("Preview unavailable");
@@ -1,9 +1,15 @@
 package main;
 
+import cli.CompressionCli;
 import gui.CompressionApp;
 
 public class Main {
+    // With arguments the codecs run headless, e.g. "compress logs/**/*.csv -a lzw-framed"
     public static void main(String[] args) {
-        CompressionApp.main(args);
+        if (args.length > 0) {
+            CompressionCli.main(args);
+        } else {
+            CompressionApp.main(args);
+        }
     }
 }
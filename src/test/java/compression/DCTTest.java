@@ -0,0 +1,244 @@
+package compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the fast AAN float and LLM fixed-point transforms against the naive
+ * double-precision DCT they replaced, on random blocks and on the extremes of the
+ * sample and coefficient ranges.
+ */
+class DCTTest {
+    private static final int SIZE = DCT.SIZE;
+    private static final int N = DCT.COEFFICIENTS;
+
+    private static final int MIN_SAMPLE = -128;
+    private static final int MAX_SAMPLE = 127;
+    // An 8-bit image cannot produce a coefficient outside this range
+    private static final int MAX_COEFFICIENT = 1023;
+
+    // Worst absolute errors, in coefficient and sample units, over the blocks below
+    private static final double FLOAT_ERROR = 0.01;
+    // Fixed-point outputs are rounded: coefficients to 1/8, samples to whole levels
+    private static final double INT_FORWARD_ERROR = 0.25;
+    private static final double INT_INVERSE_ERROR = 1.0;
+
+    @Test
+    void floatForwardMatchesReference() {
+        // Ones in the table leave only the AAN output scale in the divisors
+        float[] unscale = DCT.floatDivisors(ones());
+        double worst = 0;
+        for (int[] samples : sampleBlocks()) {
+            double[] expected = forwardReference(samples);
+            float[] block = toFloat(samples);
+            DCT.forwardFloat(block);
+            for (int i = 0; i < N; i++) {
+                worst = Math.max(worst, Math.abs(block[i] * unscale[i] - expected[i]));
+            }
+        }
+        assertWithin(worst, FLOAT_ERROR, "float forward");
+    }
+
+    @Test
+    void floatInverseMatchesReference() {
+        float[] multipliers = DCT.floatMultipliers(ones());
+        float[] out = new float[N];
+        double worst = 0;
+        for (int[] coefficients : coefficientBlocks()) {
+            double[] expected = inverseReference(coefficients);
+            DCT.inverseFloat(coefficients, multipliers, out);
+            for (int i = 0; i < N; i++) {
+                worst = Math.max(worst, Math.abs(out[i] - expected[i]));
+            }
+        }
+        assertWithin(worst, FLOAT_ERROR, "float inverse");
+    }
+
+    @Test
+    void integerForwardMatchesReference() {
+        double worst = 0;
+        for (int[] samples : sampleBlocks()) {
+            double[] expected = forwardReference(samples);
+            int[] block = samples.clone();
+            DCT.forwardInt(block);
+            for (int i = 0; i < N; i++) {
+                worst = Math.max(worst, Math.abs(block[i] / 8.0 - expected[i]));
+            }
+        }
+        assertWithin(worst, INT_FORWARD_ERROR, "integer forward");
+    }
+
+    @Test
+    void integerInverseMatchesReference() {
+        int[] out = new int[N];
+        double worst = 0;
+        for (int[] coefficients : coefficientBlocks()) {
+            double[] expected = inverseReference(coefficients);
+            DCT.inverseInt(coefficients, ones(), out);
+            for (int i = 0; i < N; i++) {
+                worst = Math.max(worst, Math.abs(out[i] - expected[i]));
+            }
+        }
+        assertWithin(worst, INT_INVERSE_ERROR, "integer inverse");
+    }
+
+    @Test
+    void dequantizationIsFoldedIntoInverse() {
+        int[] qTable = new int[N];
+        Random random = new Random(7);
+        for (int i = 0; i < N; i++) {
+            qTable[i] = 1 + random.nextInt(99);
+        }
+        int[] coefficients = new int[N];
+        int[] dequantized = new int[N];
+        for (int i = 0; i < N; i++) {
+            coefficients[i] = i < 12 ? random.nextInt(11) - 5 : 0;
+            dequantized[i] = coefficients[i] * qTable[i];
+        }
+        double[] expected = inverseReference(dequantized);
+        float[] floatOut = new float[N];
+        int[] intOut = new int[N];
+        DCT.inverseFloat(coefficients, DCT.floatMultipliers(qTable), floatOut);
+        DCT.inverseInt(coefficients, qTable, intOut);
+        double floatWorst = 0;
+        double intWorst = 0;
+        for (int i = 0; i < N; i++) {
+            floatWorst = Math.max(floatWorst, Math.abs(floatOut[i] - expected[i]));
+            intWorst = Math.max(intWorst, Math.abs(intOut[i] - expected[i]));
+        }
+        assertWithin(floatWorst, FLOAT_ERROR, "float inverse with quantization");
+        assertWithin(intWorst, INT_INVERSE_ERROR, "integer inverse with quantization");
+    }
+
+    private static void assertWithin(double error, double bound, String what) {
+        assertTrue(error <= bound, what + ": max abs error " + error + " exceeds " + bound);
+    }
+
+    /** Level-shifted sample blocks: edge cases first, then random ones. */
+    private static List<int[]> sampleBlocks() {
+        List<int[]> blocks = new ArrayList<>();
+        blocks.add(new int[N]);
+        blocks.add(filled(MAX_SAMPLE));
+        blocks.add(filled(MIN_SAMPLE));
+        blocks.add(pattern((row, col) -> (row + col) % 2 == 0 ? MAX_SAMPLE : MIN_SAMPLE));
+        blocks.add(pattern((row, col) -> row % 2 == 0 ? MAX_SAMPLE : MIN_SAMPLE));
+        blocks.add(pattern((row, col) -> col < SIZE / 2 ? MAX_SAMPLE : MIN_SAMPLE));
+        Random random = new Random(0x5EEDL);
+        for (int b = 0; b < 2000; b++) {
+            int[] block = new int[N];
+            for (int i = 0; i < N; i++) {
+                block[i] = MIN_SAMPLE + random.nextInt(MAX_SAMPLE - MIN_SAMPLE + 1);
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /** Coefficient blocks: zero, DC only, every coefficient at its extreme, and random ones. */
+    private static List<int[]> coefficientBlocks() {
+        List<int[]> blocks = new ArrayList<>();
+        blocks.add(new int[N]);
+        for (int dc : new int[]{MAX_COEFFICIENT, -MAX_COEFFICIENT - 1, 1, -1}) {
+            int[] block = new int[N];
+            block[0] = dc;
+            blocks.add(block);
+        }
+        blocks.add(filled(MAX_COEFFICIENT));
+        blocks.add(filled(-MAX_COEFFICIENT - 1));
+        blocks.add(pattern((u, v) -> (u + v) % 2 == 0 ? MAX_COEFFICIENT : -MAX_COEFFICIENT - 1));
+        for (int i = 1; i < N; i++) {
+            int[] block = new int[N];
+            block[i] = (i % 2 == 0) ? MAX_COEFFICIENT : -MAX_COEFFICIENT - 1;
+            blocks.add(block);
+        }
+        Random random = new Random(0xC0EFL);
+        for (int b = 0; b < 2000; b++) {
+            int[] block = new int[N];
+            // Large low frequencies, small high ones, as in real images
+            for (int i = 0; i < N; i++) {
+                int range = Math.max(1, MAX_COEFFICIENT >> (i / SIZE + i % SIZE));
+                block[i] = random.nextInt(2 * range + 1) - range;
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private interface Pattern {
+        int at(int row, int col);
+    }
+
+    private static int[] pattern(Pattern pattern) {
+        int[] block = new int[N];
+        for (int i = 0; i < N; i++) {
+            block[i] = pattern.at(i / SIZE, i % SIZE);
+        }
+        return block;
+    }
+
+    private static int[] filled(int value) {
+        int[] block = new int[N];
+        Arrays.fill(block, value);
+        return block;
+    }
+
+    private static int[] ones() {
+        return filled(1);
+    }
+
+    private static float[] toFloat(int[] block) {
+        float[] result = new float[N];
+        for (int i = 0; i < N; i++) {
+            result[i] = block[i];
+        }
+        return result;
+    }
+
+    /** The O(N^4) forward DCT from the original JPEGCompressor, on a row-major block. */
+    private static double[] forwardReference(int[] block) {
+        double[] result = new double[N];
+        for (int u = 0; u < SIZE; u++) {
+            for (int v = 0; v < SIZE; v++) {
+                double sum = 0.0;
+                for (int x = 0; x < SIZE; x++) {
+                    for (int y = 0; y < SIZE; y++) {
+                        sum += block[x * SIZE + y]
+                                * Math.cos((2 * x + 1) * u * Math.PI / 16)
+                                * Math.cos((2 * y + 1) * v * Math.PI / 16);
+                    }
+                }
+                double cu = (u == 0) ? 1 / Math.sqrt(2) : 1;
+                double cv = (v == 0) ? 1 / Math.sqrt(2) : 1;
+                result[u * SIZE + v] = 0.25 * cu * cv * sum;
+            }
+        }
+        return result;
+    }
+
+    /** The O(N^4) inverse DCT from the original JPEGCompressor, on a row-major block. */
+    private static double[] inverseReference(int[] block) {
+        double[] result = new double[N];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                double sum = 0.0;
+                for (int u = 0; u < SIZE; u++) {
+                    for (int v = 0; v < SIZE; v++) {
+                        double cu = (u == 0) ? 1 / Math.sqrt(2) : 1;
+                        double cv = (v == 0) ? 1 / Math.sqrt(2) : 1;
+                        sum += cu * cv * block[u * SIZE + v]
+                                * Math.cos((2 * x + 1) * u * Math.PI / 16)
+                                * Math.cos((2 * y + 1) * v * Math.PI / 16);
+                    }
+                }
+                result[x * SIZE + y] = 0.25 * sum;
+            }
+        }
+        return result;
+    }
+}
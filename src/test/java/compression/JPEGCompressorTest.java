@@ -0,0 +1,151 @@
+package compression;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JPEGCompressorTest {
+    // Magic, version, width, height, quality and DCT mode
+    private static final int HEADER_SIZE = 14;
+    private static final int MAGIC_AND_VERSION = 4;
+
+    @Test
+    void decodesWithTheTransformTheFileWasWrittenWith() throws IOException {
+        byte[] png = testImage(100, 70);
+        for (JPEGCompressor.DctMode written : JPEGCompressor.DctMode.values()) {
+            byte[] file = compress(new JPEGCompressor(75, written), png);
+            int[] expected = decode(new JPEGCompressor(75, written), file);
+            for (JPEGCompressor.DctMode decoder : JPEGCompressor.DctMode.values()) {
+                assertArrayEquals(expected, decode(new JPEGCompressor(75, decoder), file),
+                        written + " file decoded by an instance in " + decoder + " mode");
+            }
+        }
+    }
+
+    @Test
+    void stripsAreCodedAlikeStreamingOrWholeSerialOrParallel() throws IOException {
+        // Three strips, the last one partial, and chroma planes of odd size
+        byte[] png = testImage(65, 129);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (JPEGCompressor.DctMode mode : JPEGCompressor.DctMode.values()) {
+                JPEGCompressor serial = new JPEGCompressor(75, mode);
+                JPEGCompressor parallel = new JPEGCompressor(75, mode, pool);
+                byte[] expected = compress(serial, png);
+                assertArrayEquals(expected, compressStreaming(serial, png), mode + " streaming");
+                assertArrayEquals(expected, compress(parallel, png), mode + " parallel");
+                assertArrayEquals(expected, compressStreaming(parallel, png), mode + " parallel streaming");
+                assertArrayEquals(decode(serial, expected), decode(parallel, expected), mode + " parallel decode");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void scaledDecodesRoundTheSizeUp() throws IOException {
+        JPEGCompressor compressor = new JPEGCompressor(75);
+        byte[] file = compress(compressor, testImage(65, 129));
+        // Divisor, width, height
+        int[][] sizes = {{1, 65, 129}, {2, 33, 65}, {4, 17, 33}, {8, 9, 17}};
+        for (int[] size : sizes) {
+            BufferedImage image = compressor.decompressScaled(new ByteArrayInputStream(file), size[0]);
+            assertEquals(size[1], image.getWidth(), "width at 1/" + size[0]);
+            assertEquals(size[2], image.getHeight(), "height at 1/" + size[0]);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> compressor.decompressScaled(new ByteArrayInputStream(file), 3));
+    }
+
+    @Test
+    void rejectsSegmentLengthsTheStripCannotHave() throws IOException {
+        byte[] file = compress(new JPEGCompressor(75), testImage(100, 70));
+        // The Y, Cb and Cr lengths of the first strip follow the header
+        for (int segment = 0; segment < 3; segment++) {
+            for (int size : new int[]{-1, Integer.MIN_VALUE, 1 << 20, Integer.MAX_VALUE}) {
+                byte[] corrupted = file.clone();
+                ByteBuffer.wrap(corrupted).putInt(HEADER_SIZE + 4 * segment, size);
+                assertCorrupted(corrupted);
+            }
+        }
+    }
+
+    @Test
+    void rejectsTruncatedSegments() throws IOException {
+        byte[] file = compress(new JPEGCompressor(75), testImage(100, 70));
+        ByteBuffer header = ByteBuffer.wrap(file, HEADER_SIZE, 12);
+        int ySize = header.getInt();
+        int cbSize = header.getInt();
+        int crSize = header.getInt();
+        int segments = HEADER_SIZE + 12;
+        for (int end : new int[]{segments + ySize / 2, segments + ySize + cbSize / 2,
+                segments + ySize + cbSize + crSize - 1}) {
+            assertCorrupted(Arrays.copyOf(file, end));
+        }
+    }
+
+    @Test
+    void rejectsImageSizesNoStripBufferCanHold() throws IOException {
+        byte[] file = compress(new JPEGCompressor(75), testImage(100, 70));
+        for (int width : new int[]{0x10000000, 2_000_000_000, Integer.MAX_VALUE}) {
+            // The real header with the width replaced, one row high, then three empty segments
+            ByteBuffer header = ByteBuffer.wrap(Arrays.copyOf(file, HEADER_SIZE + 12));
+            header.putInt(MAGIC_AND_VERSION, width).putInt(MAGIC_AND_VERSION + 4, 1);
+            header.putInt(HEADER_SIZE, 0).putInt(HEADER_SIZE + 4, 0).putInt(HEADER_SIZE + 8, 0);
+            IOException e = assertThrows(IOException.class, () -> decode(new JPEGCompressor(75), header.array()),
+                    "width " + width);
+            assertEquals("Corrupted JPEG header", e.getMessage());
+        }
+    }
+
+    private static void assertCorrupted(byte[] file) {
+        IOException e = assertThrows(IOException.class, () -> decode(new JPEGCompressor(75), file));
+        assertEquals("Corrupted JPC segment", e.getMessage());
+    }
+
+    private static byte[] compress(JPEGCompressor compressor, byte[] png) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(new ByteArrayInputStream(png), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] compressStreaming(JPEGCompressor compressor, byte[] png) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compressStreaming(new ByteArrayInputStream(png), out);
+        return out.toByteArray();
+    }
+
+    private static int[] decode(JPEGCompressor compressor, byte[] file) throws IOException {
+        return compressor.decompressPixels(new ByteArrayInputStream(file)).pixels();
+    }
+
+    /** Smooth gradients with noise, so both transforms have detail to disagree on. */
+    private static byte[] testImage(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(40)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(40)) & 0xFF;
+                int b = ((x + y) * 2 + random.nextInt(40)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package compression;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The vector kernels must match the scalar ones bit for bit, or files would depend on the
+ * machine that wrote them. Skipped where the Vector API cannot run: without
+ * {@code jdk.incubator.vector} or on a CPU without 256-bit vectors.
+ */
+class KernelsTest {
+    private static final int N = DCT.COEFFICIENTS;
+    // Row lengths around the 8-lane width, so the scalar tails run with every remainder
+    private static final int[] LENGTHS = {0, 1, 2, 3, 5, 7, 8, 9, 15, 16, 17, 23, 31, 33, 1023, 1025};
+
+    private final Kernels scalar = Kernels.scalar();
+    private Kernels vector;
+
+    @BeforeEach
+    void loadVector() {
+        vector = Kernels.vector();
+        assumeTrue(vector != null, "vector kernels unavailable on this JVM or CPU");
+    }
+
+    @Test
+    void blockKernelsMatch() {
+        int[] qTable = new int[N];
+        Arrays.fill(qTable, 3);
+        float[] divisors = DCT.floatDivisors(qTable);
+        float[] multipliers = DCT.floatMultipliers(qTable);
+        float[] scratch = new float[N];
+        Random random = new Random(0x5EEDL);
+        for (int n = 0; n < 10_000; n++) {
+            float[] a = new float[N];
+            for (int i = 0; i < N; i++) {
+                a[i] = random.nextInt(256) - 128 + (n % 2 == 0 ? random.nextFloat() : 0);
+            }
+            float[] b = a.clone();
+            scalar.forwardDct(a, scratch);
+            vector.forwardDct(b, scratch);
+            assertArrayEquals(a, b, "forwardDct");
+
+            int[] qa = new int[N];
+            int[] qb = new int[N];
+            scalar.quantize(a, divisors, qa);
+            vector.quantize(b, divisors, qb);
+            assertArrayEquals(qa, qb, "quantize");
+
+            scalar.inverseDct(qa, multipliers, a, scratch);
+            vector.inverseDct(qa, multipliers, b, scratch);
+            assertArrayEquals(a, b, "inverseDct");
+        }
+    }
+
+    @Test
+    void quantizeRoundsHalvesAlike() {
+        float[] divisors = new float[N];
+        Arrays.fill(divisors, 1f);
+        float[] coefficients = new float[N];
+        for (int i = 0; i < N; i++) {
+            // -15.5 to 16.0 in halves: every tie, both signs, and zero
+            coefficients[i] = (i - 31) * 0.5f;
+        }
+        int[] a = new int[N];
+        int[] b = new int[N];
+        scalar.quantize(coefficients, divisors, a);
+        vector.quantize(coefficients, divisors, b);
+        assertArrayEquals(a, b);
+    }
+
+    @Test
+    void lumaMatchesAtEveryLengthAndOffset() {
+        Random random = new Random(1);
+        for (int length : LENGTHS) {
+            for (int offset = 0; offset < 3; offset++) {
+                int[] rgb = random.ints(length + 3).toArray();
+                float[] a = new float[length + offset];
+                float[] b = new float[length + offset];
+                scalar.luma(rgb, 3 - offset, a, offset, length);
+                vector.luma(rgb, 3 - offset, b, offset, length);
+                assertArrayEquals(a, b, "luma, length " + length + ", offset " + offset);
+            }
+        }
+    }
+
+    @Test
+    void toRGBMatchesAtEveryLengthAndOffset() {
+        Random random = new Random(2);
+        for (int length : LENGTHS) {
+            for (int offset = 0; offset < 3; offset++) {
+                float[] y = new float[length + 2];
+                float[] cb = new float[length + offset];
+                float[] cr = new float[length + offset];
+                // Wide enough that every channel clamps at both ends
+                for (int i = 0; i < y.length; i++) {
+                    y[i] = random.nextFloat() * 300 - 150;
+                }
+                for (int i = 0; i < cb.length; i++) {
+                    cb[i] = random.nextFloat() * 300 - 150;
+                    cr[i] = random.nextFloat() * 300 - 150;
+                }
+                int[] a = new int[length + 1];
+                int[] b = new int[length + 1];
+                scalar.toRGB(y, 2, cb, cr, offset, a, 1, length);
+                vector.toRGB(y, 2, cb, cr, offset, b, 1, length);
+                assertArrayEquals(a, b, "toRGB, length " + length + ", offset " + offset);
+            }
+        }
+    }
+}